@@ -0,0 +1,153 @@
+package client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+public class ExportClient {
+
+    private static final Logger logger = Logger.getLogger(ExportClient.class.getName());
+
+    private static final String USAGE =
+            "Usage: ExportClient host port outputFile [--from timestamp] [--to timestamp] [--gzip]";
+
+    /**
+     * Download stored readings from the server's export port. If the output
+     * file already exists (and compression is off) the download resumes from
+     * its current size. Exits with status 1 if the download fails or is
+     * shorter than the server announced.
+     *
+     * Usage: ExportClient host port outputFile [--from timestamp] [--to timestamp] [--gzip]
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        ClientConfig config;
+        StringBuilder request = new StringBuilder("EXPORT");
+        boolean gzip = false;
+        try {
+            config = ClientConfig.fromArgs(new String[] {args[0], args[1]});
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--from" -> request.append(" from=").append(requireValue(args, ++i));
+                    case "--to" -> request.append(" to=").append(requireValue(args, ++i));
+                    case "--gzip" -> gzip = true;
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+
+        Path output = Paths.get(args[2]);
+        try {
+            long offset = 0;
+            if (gzip) {
+                request.append(" gzip");
+            } else if (Files.exists(output)) {
+                offset = Files.size(output);
+                request.append(" offset=").append(offset);
+            }
+            long received = download(config, request.append('\n').toString(), output, offset > 0, gzip);
+            System.out.println("Exported " + received + " bytes to " + output +
+                    (offset > 0 ? " (resumed at " + offset + ")" : ""));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Export failed: " + e.getMessage(), e);
+            System.err.println("Export failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static long download(ClientConfig config, String request, Path output, boolean append, boolean gzip)
+            throws IOException {
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(config.host(), config.port()))) {
+            channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+
+            // Read the status line one byte at a time so no body bytes are consumed.
+            StringBuilder status = new StringBuilder();
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (true) {
+                one.clear();
+                if (channel.read(one) < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+                char c = (char) one.get(0);
+                if (c == '\n') break;
+                status.append(c);
+            }
+            if (!status.toString().startsWith("OK ")) {
+                throw new IOException("Server refused export: " + status);
+            }
+            long expected;
+            try {
+                expected = Long.parseLong(status.substring(3).trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed status line: " + status);
+            }
+
+            try (FileChannel file = append
+                    ? FileChannel.open(output, StandardOpenOption.WRITE)
+                    : FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                long received = 0;
+                long position = file.size();
+                while (true) {
+                    long n = file.transferFrom(channel, position + received, 1 << 20);
+                    if (n <= 0) break;
+                    received += n;
+                }
+                // The announced count is the uncompressed size of the slice.
+                long exported = gzip ? uncompressedSize(output) : received;
+                if (exported != expected) {
+                    throw new IOException("Incomplete export: got " + exported + " of " + expected + " bytes" +
+                            (gzip ? "" : "; run again to resume"));
+                }
+                return received;
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes the gzip file decompresses to
+     * @throws IOException if the file is truncated or corrupt
+     */
+    private static long uncompressedSize(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            byte[] chunk = new byte[64 * 1024];
+            long total = 0;
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                total += n;
+            }
+            return total;
+        } catch (EOFException e) {
+            throw new IOException("Incomplete export: compressed stream is truncated", e);
+        }
+    }
+
+    private static String requireValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+}
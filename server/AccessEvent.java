@@ -0,0 +1,24 @@
+package server;
+
+/**
+ * Kinds of event recorded in the {@link AccessLog}. The meaning of the two
+ * numeric arguments of each event is given per constant.
+ */
+public enum AccessEvent {
+    /** Connection accepted. a = packed IPv4 address (0 if not IPv4), b = remote port. */
+    CONNECT,
+    /** Queued connection picked up by a worker. a = queue position at join, b = wait in milliseconds. */
+    DEQUEUE,
+    /** Client answered a prompt. a = prompt number within the session, b = response time in nanoseconds. */
+    PROMPT,
+    /** Reading stored. a = 0, b = store time in nanoseconds. */
+    STORE_OK,
+    /** Reading could not be stored. a = 0, b = time spent in nanoseconds. */
+    STORE_FAILED,
+    /** Reading rejected by the rate limiter. */
+    RATE_LIMITED,
+    /** Client timed out waiting for input. a = prompt number. */
+    TIMEOUT,
+    /** Session finished. a = session duration in milliseconds. */
+    DISCONNECT
+}
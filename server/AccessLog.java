@@ -0,0 +1,314 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous structured access log.
+ *
+ * Session threads call {@link #record} to put a fixed-size binary event into a
+ * bounded lock-free ring buffer. Recording never blocks and never builds a
+ * string: if the buffer is full the event is dropped and counted. A single
+ * background thread drains the buffer, formats events into text, writes them
+ * to disk in batches and rolls the file when it grows too large.
+ */
+public final class AccessLog implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final long DEFAULT_MAX_FILE_BYTES = 10L * 1024 * 1024;
+    private static final int DEFAULT_MAX_ROLLED_FILES = 5;
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+
+    private static final AccessEvent[] EVENTS = AccessEvent.values();
+    private static final AccessLog DISABLED = new AccessLog(null, 2, 0, 0, false);
+
+    private final boolean enabled;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final long[] sessionIds;
+    private final long[] threadIds;
+    private final long[] argsA;
+    private final long[] argsB;
+    private final byte[] types;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxRolledFiles;
+    private Thread writerThread;
+    private Writer out;
+    private long fileBytes;
+    private long droppedReported;
+
+    /**
+     * Create an access log writing to {@code file}. Call {@link #start()} to
+     * begin writing.
+     *
+     * @param file           log file; rolled files get a numeric suffix
+     * @param capacity       ring buffer size in events (rounded up to a power of two)
+     * @param maxFileBytes   size at which the file is rolled
+     * @param maxRolledFiles number of rolled files to keep
+     */
+    public AccessLog(Path file, int capacity, long maxFileBytes, int maxRolledFiles) {
+        this(file, capacity, maxFileBytes, maxRolledFiles, true);
+    }
+
+    public AccessLog(Path file) {
+        this(file, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_ROLLED_FILES);
+    }
+
+    private AccessLog(Path file, int capacity, long maxFileBytes, int maxRolledFiles, boolean enabled) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.enabled = enabled;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.times = new long[size];
+        this.sessionIds = new long[size];
+        this.threadIds = new long[size];
+        this.argsA = new long[size];
+        this.argsB = new long[size];
+        this.types = new byte[size];
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxRolledFiles = maxRolledFiles;
+    }
+
+    /**
+     * Access log that discards every event, for callers that do not need one.
+     */
+    public static AccessLog disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * Open the log file and start the background writer thread.
+     */
+    public void start() throws IOException {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return;
+        }
+        openFile();
+        writerThread = new Thread(this::writerLoop, "access-log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Record an event. Never blocks; if the buffer is full the event is dropped.
+     *
+     * @param event     kind of event
+     * @param sessionId id of the session the event belongs to
+     * @param a         first event argument, see {@link AccessEvent}
+     * @param b         second event argument, see {@link AccessEvent}
+     */
+    public void record(AccessEvent event, long sessionId, long a, long b) {
+        if (!enabled) {
+            return;
+        }
+        while (true) {
+            long pos = tail.get();
+            int slot = (int) (pos & mask);
+            long seq = sequences.get(slot);
+            if (seq < pos) {
+                dropped.increment(); // writer has not freed this slot yet: buffer full
+                return;
+            }
+            if (seq == pos && tail.compareAndSet(pos, pos + 1)) {
+                times[slot] = System.currentTimeMillis();
+                sessionIds[slot] = sessionId;
+                threadIds[slot] = Thread.currentThread().getId();
+                argsA[slot] = a;
+                argsB[slot] = b;
+                types[slot] = (byte) event.ordinal();
+                sequences.lazySet(slot, pos + 1);
+                return;
+            }
+            // Lost the race for this slot to another producer; try the next one.
+        }
+    }
+
+    /**
+     * @return number of events dropped because the buffer was full
+     */
+    public long droppedEvents() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of events written to disk
+     */
+    public long writtenEvents() {
+        return written.get();
+    }
+
+    /**
+     * Pack an IPv4 socket address into a long for a {@link AccessEvent#CONNECT} event.
+     */
+    public static long packAddress(SocketAddress address) {
+        if (address instanceof InetSocketAddress inet && inet.getAddress() instanceof Inet4Address) {
+            byte[] b = inet.getAddress().getAddress();
+            return ((b[0] & 0xFFL) << 24) | ((b[1] & 0xFFL) << 16) | ((b[2] & 0xFFL) << 8) | (b[3] & 0xFFL);
+        }
+        return 0;
+    }
+
+    /**
+     * Stop the writer thread after writing every event recorded so far.
+     */
+    @Override
+    public void close() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writerLoop() {
+        StringBuilder line = new StringBuilder(128);
+        try {
+            while (running.get()) {
+                if (drainBatch(line) == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            while (drainBatch(line) > 0) {
+                // flush whatever was recorded before close()
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Access log writer failed: " + e.getMessage(), e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private int drainBatch(StringBuilder line) throws IOException {
+        int count = 0;
+        while (count < MAX_BATCH) {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1) {
+                break; // next event not published yet
+            }
+            line.setLength(0);
+            format(line, slot);
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            write(line);
+            count++;
+        }
+
+        long droppedNow = dropped.sum();
+        if (droppedNow != droppedReported) {
+            line.setLength(0);
+            line.append(Instant.now()).append(" DROPPED total=").append(droppedNow).append('\n');
+            write(line);
+            droppedReported = droppedNow;
+        }
+
+        if (count > 0) {
+            out.flush();
+            written.addAndGet(count);
+        }
+        return count;
+    }
+
+    private void format(StringBuilder line, int slot) {
+        AccessEvent event = EVENTS[types[slot]];
+        long a = argsA[slot];
+        long b = argsB[slot];
+
+        line.append(Instant.ofEpochMilli(times[slot]))
+                .append(" session=").append(sessionIds[slot])
+                .append(" thread=").append(threadIds[slot])
+                .append(' ').append(event.name());
+
+        switch (event) {
+            case CONNECT -> line.append(" remote=")
+                    .append((a >>> 24) & 0xFF).append('.').append((a >>> 16) & 0xFF).append('.')
+                    .append((a >>> 8) & 0xFF).append('.').append(a & 0xFF).append(':').append(b);
+            case DEQUEUE -> line.append(" position=").append(a).append(" waitMs=").append(b);
+            case PROMPT -> line.append(" prompt=").append(a).append(" responseUs=").append(b / 1_000);
+            case STORE_OK, STORE_FAILED -> line.append(" storeUs=").append(b / 1_000);
+            case TIMEOUT -> line.append(" prompt=").append(a);
+            case DISCONNECT -> line.append(" durationMs=").append(a);
+            default -> { }
+        }
+        line.append('\n');
+    }
+
+    private void write(StringBuilder line) throws IOException {
+        if (fileBytes + line.length() > maxFileBytes) {
+            roll();
+        }
+        out.append(line);
+        fileBytes += line.length();
+    }
+
+    private void openFile() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        fileBytes = Files.size(file);
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        for (int i = maxRolledFiles - 1; i >= 1; i--) {
+            Path from = rolledFile(i);
+            if (Files.exists(from)) {
+                Files.move(from, rolledFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxRolledFiles > 0) {
+            Files.move(file, rolledFile(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        openFile();
+    }
+
+    private Path rolledFile(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+}
@@ -1,32 +1,220 @@
 package server;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 public class BasicServer {
 
+    private static final Logger logger = Logger.getLogger(BasicServer.class.getName());
+
     private static final int DEFAULT_PORT = 8080;
     private static final int MAX_CLIENTS = 4;
     private static final String CSV_FILE_NAME = "co2_readings.csv";
+    private static final String BLOCK_FILE_NAME = "co2_readings.blk";
+    private static final int HOT_TIER_CAPACITY = 1 << 20;
+    // CSV lines are about 50 bytes, so this covers a full hot tier with room to spare.
+    private static final long HOT_TIER_WARM_BYTES = 64L * HOT_TIER_CAPACITY;
+    private static final long LAG_REPORT_INTERVAL_SECONDS = 60;
+    private static final String ACCESS_LOG_FILE_NAME = "access.log";
+    private static final Duration DRAIN_DEADLINE = Duration.ofSeconds(20);
+    private static final String USAGE =
+            "Usage: BasicServer [port] [--data file] [--storage csv|blocks] [--replication-port port]" +
+            " [--follow host:port] [--export-port port] [--access-log file]";
 
     /**
-     * Simple main to launch the CO2 logging server. Optionally accepts a
-     * single argument to override the listening port.
+     * Simple main to launch the CO2 logging server.
+     *
+     * Usage: BasicServer [port] [--data file] [--storage csv|blocks] [--replication-port port]
+     *                    [--follow host:port] [--export-port port] [--access-log file]
+     *
+     * {@code --storage blocks} stores readings in compressed blocks instead of
+     * CSV. Replication and export work on the CSV file and need CSV storage.
      *
-     * Usage: BasicServer [port]
+     * With {@code --replication-port} the server acts as a replication leader
+     * and ships its CSV file to followers. With {@code --follow} it runs as a
+     * read-only follower of the given leader's replication port. With
+     * {@code --export-port} it serves bulk exports of the CSV file.
+     *
+     * The access log defaults to {@code access.log}, or to
+     * {@code <data file>.access.log} when {@code --data} is given, so servers
+     * sharing a directory do not share a log.
      *
      * @param args optional command-line arguments
      */
     public static void main(String[] args) {
         int port = DEFAULT_PORT;
+        String dataFile = null;
+        String accessLogFile = null;
+        boolean blockStorage = false;
+        int replicationPort = -1;
+        int exportPort = -1;
+        String followHost = null;
+        int followPort = -1;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--data" -> dataFile = requireValue(args, ++i);
+                    case "--access-log" -> accessLogFile = requireValue(args, ++i);
+                    case "--storage" -> {
+                        String storage = requireValue(args, ++i);
+                        if (!storage.equals("csv") && !storage.equals("blocks")) {
+                            throw new IllegalArgumentException("--storage must be csv or blocks");
+                        }
+                        blockStorage = storage.equals("blocks");
+                    }
+                    case "--replication-port" -> replicationPort = Integer.parseInt(requireValue(args, ++i));
+                    case "--export-port" -> exportPort = Integer.parseInt(requireValue(args, ++i));
+                    case "--follow" -> {
+                        String leaderAddress = requireValue(args, ++i);
+                        int colon = leaderAddress.lastIndexOf(':');
+                        if (colon <= 0) {
+                            throw new IllegalArgumentException("--follow expects host:port but got " + leaderAddress);
+                        }
+                        followHost = leaderAddress.substring(0, colon);
+                        followPort = Integer.parseInt(leaderAddress.substring(colon + 1));
+                    }
+                    default -> port = Integer.parseInt(args[i]);
+                }
+            }
+            if (blockStorage && (replicationPort > 0 || exportPort > 0 || followHost != null)) {
+                throw new IllegalArgumentException("replication and export require CSV storage");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+
+        if (accessLogFile == null) {
+            accessLogFile = dataFile != null ? dataFile + ".access.log" : ACCESS_LOG_FILE_NAME;
+        }
+
+        StringDictionary userIds = Co2Dictionaries.USER_IDS;
+        StringDictionary postcodes = Co2Dictionaries.POSTCODES;
+        Co2ReadingHotTier hotTier = new Co2ReadingHotTier(HOT_TIER_CAPACITY, userIds, postcodes);
+
+        Co2ReadingCsvRepository csvRepository = null;
+        Co2ReadingRepository storage;
+        if (blockStorage) {
+            storage = new Co2ReadingBlockRepository(dataFile != null ? dataFile : BLOCK_FILE_NAME,
+                    Co2ReadingBlockRepository.DEFAULT_BLOCK_SIZE, userIds, postcodes);
+        } else {
+            dataFile = dataFile != null ? dataFile : CSV_FILE_NAME;
+            csvRepository = new Co2ReadingCsvRepository(dataFile);
+            storage = csvRepository;
+        }
+        HotTierCo2ReadingRepository repository = new HotTierCo2ReadingRepository(storage, hotTier);
+
+        Co2LoggingServer server;
+        ReplicationLeader leader = null;
+        ReplicationFollower follower = null;
+        Co2ExportServer exporter = null;
+        Co2RateLimiter rateLimiter = Co2RateLimiter.unlimited();
+        AccessLog accessLog = new AccessLog(Paths.get(accessLogFile));
 
-        if (args.length > 0) {
-            port = Integer.parseInt(args[0]);
+        try {
+            if (followHost != null) {
+                follower = new ReplicationFollower(followHost, followPort, repository, csvRepository.filePath(),
+                        Paths.get(dataFile + ".offset"));
+                // Drop a half-recorded batch before the hot tier is loaded from the file.
+                follower.recover();
+            }
+            if (csvRepository != null) {
+                warmHotTier(repository, csvRepository);
+            }
+
+            accessLog.start();
+            if (follower != null) {
+                follower.start();
+                server = Co2LoggingServer.readOnly(port, MAX_CLIENTS, hotTier, accessLog);
+            } else {
+                if (replicationPort > 0) {
+                    leader = new ReplicationLeader(replicationPort, csvRepository.filePath());
+                    leader.start();
+                }
+                rateLimiter = Co2RateLimiter.withDefaultQuotas();
+                rateLimiter.start();
+                server = new Co2LoggingServer(port, MAX_CLIENTS, repository, rateLimiter, accessLog);
+            }
+            if (exportPort > 0) {
+                exporter = new Co2ExportServer(exportPort, csvRepository.filePath());
+                exporter.start();
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to start server: " + e.getMessage(), e);
+            return;
         }
 
-        Co2ReadingRepository repository = new Co2ReadingCsvRepository(CSV_FILE_NAME);
-        Co2LoggingServer server = new Co2LoggingServer(port, MAX_CLIENTS, repository);
+        ReplicationLeader finalLeader = leader;
+        ReplicationFollower finalFollower = follower;
+        ScheduledExecutorService lagReporter = startLagReporter(leader, follower);
+        Co2ExportServer finalExporter = exporter;
+        Co2RateLimiter finalRateLimiter = rateLimiter;
 
-        // Stop gracefully on JVM shutdown (e.g., Ctrl+C).
-        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        // Drain gracefully on JVM shutdown (e.g., Ctrl+C). The drain also flushes
+        // buffered readings; the leader is stopped afterwards so it can ship them.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            DrainReport report = server.drain(DRAIN_DEADLINE);
+            // java.util.logging may already be reset by its own shutdown hook, so report on stdout.
+            System.out.println(report);
+            if (lagReporter != null) lagReporter.shutdownNow();
+            if (finalFollower != null) finalFollower.stop();
+            if (finalLeader != null) finalLeader.stop();
+            if (finalExporter != null) finalExporter.stop();
+            finalRateLimiter.close();
+            accessLog.close();
+        }));
 
         server.start();
     }
+
+    private static void warmHotTier(HotTierCo2ReadingRepository repository, Co2ReadingCsvRepository csvRepository) {
+        try {
+            int loaded = repository.loadRecent(csvRepository.filePath(), HOT_TIER_WARM_BYTES);
+            logger.info("Loaded " + loaded + " recent readings into the hot tier");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not load recent readings: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Log replication lag periodically so operators can watch it.
+     *
+     * @return the reporting executor, or null if this server does not replicate
+     */
+    private static ScheduledExecutorService startLagReporter(ReplicationLeader leader, ReplicationFollower follower) {
+        if (leader == null && follower == null) {
+            return null;
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replication-lag-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> {
+            if (follower != null) {
+                logger.info("Replication lag: " + follower.lagBytes() + " bytes, " + follower.lagMillis() +
+                        " ms behind leader (applied offset " + follower.appliedOffset() + ")");
+            }
+            if (leader != null) {
+                logger.info("Replication: " + leader.followerCount() + " followers connected, slowest is " +
+                        leader.maxFollowerLagBytes() + " bytes behind");
+            }
+        }, LAG_REPORT_INTERVAL_SECONDS, LAG_REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        return reporter;
+    }
+
+    private static String requireValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
 }
@@ -11,10 +11,14 @@ import java.util.logging.Logger;
 public class ClientHandler implements Runnable {
 
     private static final Logger logger = Logger.getLogger(ClientHandler.class.getName());
-    private static final int SOCKET_READ_TIMEOUT_MS = 60_000;
+    static final int SOCKET_READ_TIMEOUT_MS = 60_000;
 
     private final Socket socket;
     private final Co2ReadingRepository repository;
+    private final Co2RateLimiter rateLimiter;
+    private final Co2ReadingHotTier queryTier;
+    private final AccessLog accessLog;
+    private final long sessionId;
 
     /**
      * Create a handler for a connected client socket.
@@ -23,8 +27,71 @@ public class ClientHandler implements Runnable {
      * @param repository repository used to persist CO2 readings
      */
     public ClientHandler(Socket socket, Co2ReadingRepository repository) {
+        this(socket, repository, Co2RateLimiter.unlimited());
+    }
+
+    /**
+     * Create a handler for a connected client socket.
+     *
+     * @param socket      the connected client socket
+     * @param repository  repository used to persist CO2 readings
+     * @param rateLimiter limiter applied to each submitted reading
+     */
+    public ClientHandler(Socket socket, Co2ReadingRepository repository, Co2RateLimiter rateLimiter) {
+        this(socket, repository, rateLimiter, AccessLog.disabled(), 0);
+    }
+
+    /**
+     * Create a handler for a connected client socket that records its
+     * activity in an access log.
+     *
+     * @param socket      the connected client socket
+     * @param repository  repository used to persist CO2 readings
+     * @param rateLimiter limiter applied to each submitted reading
+     * @param accessLog   access log for session events
+     * @param sessionId   id assigned to this connection when it was accepted
+     */
+    public ClientHandler(Socket socket, Co2ReadingRepository repository, Co2RateLimiter rateLimiter,
+                         AccessLog accessLog, long sessionId) {
+        this(socket, repository, rateLimiter, null, accessLog, sessionId);
+    }
+
+    /**
+     * Create a read-only handler that answers queries from a hot tier and
+     * does not accept readings.
+     *
+     * @param socket    the connected client socket
+     * @param queryTier hot tier used to answer queries
+     * @param accessLog access log for session events
+     * @param sessionId id assigned to this connection when it was accepted
+     */
+    public ClientHandler(Socket socket, Co2ReadingHotTier queryTier, AccessLog accessLog, long sessionId) {
+        this(socket, null, Co2RateLimiter.unlimited(), queryTier, accessLog, sessionId);
+    }
+
+    /**
+     * Create a handler for a client that is not on a socket, such as one end
+     * of an {@link InMemoryPipe}. Drive it with {@link #handle(Transport, Clock)}
+     * rather than {@link #run()}.
+     *
+     * @param repository  repository used to persist CO2 readings
+     * @param rateLimiter limiter applied to each submitted reading
+     * @param accessLog   access log for session events
+     * @param sessionId   id assigned to this client
+     */
+    public ClientHandler(Co2ReadingRepository repository, Co2RateLimiter rateLimiter, AccessLog accessLog,
+                         long sessionId) {
+        this(null, repository, rateLimiter, null, accessLog, sessionId);
+    }
+
+    private ClientHandler(Socket socket, Co2ReadingRepository repository, Co2RateLimiter rateLimiter,
+                          Co2ReadingHotTier queryTier, AccessLog accessLog, long sessionId) {
         this.socket = socket;
         this.repository = repository;
+        this.rateLimiter = rateLimiter;
+        this.queryTier = queryTier;
+        this.accessLog = accessLog;
+        this.sessionId = sessionId;
     }
 
     /**
@@ -34,30 +101,48 @@ public class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
-        log(Level.INFO, "New client connected.");
-
+        if (socket == null) {
+            throw new IllegalStateException("Handler has no socket; use handle(Transport, Clock)");
+        }
         try {
             socket.setSoTimeout(SOCKET_READ_TIMEOUT_MS);
 
             try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                  PrintWriter out = new PrintWriter(socket.getOutputStream(), true))
             {
-                ClientSession session = new ClientSession(in, out);
-                Clock clock = new SystemClock();
-
-                Co2LoggingSession loggingSession = new Co2LoggingSession(session, repository, clock);
-                loggingSession.run();
+                handle(new StreamTransport(in, out), new SystemClock());
             }
 
         } catch (IOException e) {
             log(Level.WARNING, "Socket error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run the client's session over an open transport and record its
+     * disconnect. The transport is not closed.
+     *
+     * @param transport connection to the client
+     * @param clock     time source for the session's timestamps and timings
+     * @throws IOException if the session fails, e.g. a reading cannot be stored
+     */
+    public void handle(Transport transport, Clock clock) throws IOException {
+        long startedAt = clock.nanoTime();
+        try {
+            ClientSession session = new ClientSession(transport, accessLog, sessionId, clock);
+            if (queryTier != null) {
+                new Co2QuerySession(session, queryTier, clock).run();
+            } else {
+                new Co2LoggingSession(session, repository, clock, rateLimiter).run();
+            }
         } finally {
-            log(Level.INFO, "Client disconnected.");
+            accessLog.record(AccessEvent.DISCONNECT, sessionId, (clock.nanoTime() - startedAt) / 1_000_000, 0);
         }
     }
 
     /**
      * Log a message together with thread and remote address information.
+     * Routine session events go to the {@link AccessLog} instead.
      *
      * @param lvl logging level to use
      * @param msg message to log
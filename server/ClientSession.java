@@ -9,16 +9,46 @@ import java.util.function.Function;
 
 public final class ClientSession {
 
-    private final BufferedReader in;
-    private final PrintWriter out;
+    private final Transport transport;
+    private final AccessLog accessLog;
+    private final long sessionId;
+    private final Clock clock;
+    private int prompts;
 
     public ClientSession(BufferedReader in, PrintWriter out) {
-        this.in = in;
-        this.out = out;
+        this(new StreamTransport(in, out), AccessLog.disabled(), 0);
+    }
+
+    public ClientSession(Transport transport) {
+        this(transport, AccessLog.disabled(), 0);
+    }
+
+    public ClientSession(Transport transport, AccessLog accessLog, long sessionId) {
+        this(transport, accessLog, sessionId, new SystemClock());
+    }
+
+    /**
+     * @param transport connection to the client
+     * @param accessLog access log receiving per-prompt timings for this session
+     * @param sessionId id used to tag this session's access log events
+     * @param clock     time source for prompt timings
+     */
+    public ClientSession(Transport transport, AccessLog accessLog, long sessionId, Clock clock) {
+        this.transport = transport;
+        this.accessLog = accessLog;
+        this.sessionId = sessionId;
+        this.clock = clock;
+    }
+
+    /**
+     * Record an access log event for this session.
+     */
+    public void record(AccessEvent event, long a, long b) {
+        accessLog.record(event, sessionId, a, b);
     }
 
     public void sendLine(String line) {
-        out.println(line);
+        transport.writeLine(line);
     }
 
     /**
@@ -32,15 +62,20 @@ public final class ClientSession {
                               String errorMsg) throws IOException {
 
         while (true) {
+            int promptNumber = ++prompts;
+            // Taken before the prompt goes out, so a client cannot answer before the clock is read.
+            long askedAt = clock.nanoTime();
             sendLine(prompt);
 
             String line;
             try {
-                line = in.readLine();
+                line = transport.readLine();
             } catch (SocketTimeoutException e) {
+                record(AccessEvent.TIMEOUT, promptNumber, 0);
                 sendLine("Timed out due to inactivity. Goodbye.");
                 return null;
             }
+            record(AccessEvent.PROMPT, promptNumber, clock.nanoTime() - askedAt);
 
             if (line == null) {
                 return null;
@@ -4,4 +4,11 @@ import java.time.LocalDateTime;
 
 public interface Clock {
     LocalDateTime now();
+
+    /**
+     * Monotonic time in nanoseconds, for measuring intervals.
+     */
+    default long nanoTime() {
+        return System.nanoTime();
+    }
 }
@@ -0,0 +1,15 @@
+package server;
+
+/**
+ * Process-wide dictionaries for the two low-cardinality string columns.
+ * Sharing them means every component that encodes a user id or postcode
+ * (sessions, the hot tier, block storage, the employee cache) agrees on the
+ * same int id and canonical instance for it.
+ */
+public final class Co2Dictionaries {
+
+    public static final StringDictionary USER_IDS = new StringDictionary();
+    public static final StringDictionary POSTCODES = new StringDictionary();
+
+    private Co2Dictionaries() {}
+}
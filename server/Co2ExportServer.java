@@ -0,0 +1,376 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the stored CSV file, or a time-range slice of it, to export clients.
+ *
+ * Uncompressed exports use {@link FileChannel#transferTo}, so the bytes go
+ * from the page cache to the socket without being copied through the heap.
+ * Compressed exports read the file through memory-mapped windows into one
+ * small reusable buffer. A client can resume an interrupted export by asking
+ * for the slice again with the number of bytes it already has.
+ *
+ * Protocol: the client sends one request line
+ * <pre>
+ * EXPORT [from=&lt;timestamp&gt;] [to=&lt;timestamp&gt;] [offset=&lt;bytes&gt;] [gzip]
+ * </pre>
+ * and the server answers {@code OK <bytes>} followed by that many bytes of
+ * CSV (gzip-compressed if requested), or {@code ERR <message>}. Timestamps are
+ * ISO local date-times; {@code from} is inclusive and {@code to} exclusive.
+ * The byte count is the uncompressed length of the slice after the offset.
+ *
+ * Timestamps in the CSV are mostly, but not strictly, increasing: concurrent
+ * sessions can store readings slightly out of order, and local time repeats
+ * an hour when daylight saving time ends. A time-range slice is the shortest
+ * run of whole lines that contains every reading in the range, found by
+ * binary search to within {@link #MAX_DISORDER} of each bound and a short
+ * scan from there. When timestamps are out of order it can therefore also
+ * contain a few readings just outside the range.
+ */
+public class Co2ExportServer {
+
+    private static final Logger logger = Logger.getLogger(Co2ExportServer.class.getName());
+
+    private static final int MAX_CONCURRENT_EXPORTS = 2;
+    private static final int MAX_REQUEST_BYTES = 512;
+    private static final int REQUEST_TIMEOUT_MS = 10_000;
+    private static final long MAP_WINDOW_BYTES = 64L * 1024 * 1024;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    // How far a timestamp may be behind an earlier one in the file: the repeated
+    // daylight-saving hour plus reordering between concurrent sessions.
+    private static final Duration MAX_DISORDER = Duration.ofHours(2);
+
+    private final int port;
+    private final Path dataFile;
+    private final ExecutorService exportPool;
+    private final AtomicBoolean running;
+    private volatile ServerSocketChannel serverChannel;
+    private volatile Thread acceptor;
+
+    /**
+     * @param port     TCP port export clients connect to
+     * @param dataFile CSV file written by {@link Co2ReadingCsvRepository}
+     */
+    public Co2ExportServer(int port, Path dataFile) {
+        this.port = port;
+        this.dataFile = dataFile;
+        this.exportPool = Executors.newFixedThreadPool(MAX_CONCURRENT_EXPORTS, r -> {
+            Thread t = new Thread(r, "co2-export");
+            t.setDaemon(true);
+            return t;
+        });
+        this.running = new AtomicBoolean(false);
+    }
+
+    /**
+     * Start accepting export requests on a background thread.
+     */
+    public void start() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        logger.info("Export server listening on port " + port);
+        Thread t = new Thread(this::acceptLoop, "co2-export-acceptor");
+        t.setDaemon(true);
+        acceptor = t;
+        t.start();
+    }
+
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            ServerSocketChannel ch = serverChannel;
+            if (ch != null) ch.close();
+        } catch (IOException ignored) {}
+        Thread t = acceptor;
+        if (t != null) t.interrupt();
+        exportPool.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (running.get()) {
+            try {
+                SocketChannel client = serverChannel.accept();
+                exportPool.submit(() -> serve(client));
+            } catch (IOException e) {
+                if (running.get()) {
+                    logger.log(Level.WARNING, "Export accept failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (client; FileChannel file = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            ExportRequest request;
+            try {
+                request = ExportRequest.parse(readRequestLine(client));
+            } catch (IllegalArgumentException e) {
+                writeAscii(client, "ERR " + e.getMessage() + "\n");
+                return;
+            }
+
+            // Snapshot the end so readings appended during the export are not half-sent.
+            long end = lastLineEnd(file, file.size());
+            long sliceStart = 0;
+            long sliceEnd = end;
+            if (request.from != null || request.to != null) {
+                long firstLine = lineEndAt(file, 0, end, ByteBuffer.allocate(MAX_REQUEST_BYTES));
+                sliceStart = request.from == null ? firstLine : sliceStart(file, firstLine, end, request.from);
+                sliceEnd = request.to == null ? end : sliceEnd(file, sliceStart, end, request.to);
+            }
+
+            long position = sliceStart + request.offset;
+            if (position > sliceEnd) {
+                writeAscii(client, "ERR offset beyond end of export\n");
+                return;
+            }
+
+            long count = sliceEnd - position;
+            writeAscii(client, "OK " + count + "\n");
+            logger.info("Exporting " + count + " bytes to " + client.getRemoteAddress() +
+                    (request.gzip ? " (gzip)" : ""));
+
+            if (request.gzip) {
+                sendCompressed(file, position, count, client);
+            } else {
+                sendZeroCopy(file, position, count, client);
+            }
+        } catch (IOException e) {
+            logger.info("Export aborted: " + e.getMessage());
+        }
+    }
+
+    private static void sendZeroCopy(FileChannel file, long position, long count, SocketChannel client) throws IOException {
+        while (count > 0) {
+            long sent = file.transferTo(position, count, client);
+            if (sent <= 0) {
+                throw new IOException("Export stalled at offset " + position);
+            }
+            position += sent;
+            count -= sent;
+        }
+    }
+
+    private static void sendCompressed(FileChannel file, long position, long count, SocketChannel client) throws IOException {
+        byte[] chunk = new byte[COPY_BUFFER_BYTES];
+        // Not closed here: closing the stream would close the client channel
+        // before the try-with-resources in serve() gets to it.
+        OutputStream raw = Channels.newOutputStream(client);
+        GZIPOutputStream gzip = new GZIPOutputStream(raw, COPY_BUFFER_BYTES);
+
+        while (count > 0) {
+            long windowSize = Math.min(count, MAP_WINDOW_BYTES);
+            MappedByteBuffer window = file.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            while (window.hasRemaining()) {
+                int n = Math.min(chunk.length, window.remaining());
+                window.get(chunk, 0, n);
+                gzip.write(chunk, 0, n);
+            }
+            position += windowSize;
+            count -= windowSize;
+        }
+        gzip.finish();
+        raw.flush();
+    }
+
+    /**
+     * Find the start of the first line whose timestamp is not before
+     * {@code from}. Every line before the returned offset is before {@code from}.
+     */
+    private static long sliceStart(FileChannel file, long lo, long hi, LocalDateTime from) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        // Lines before one that is earlier than from - MAX_DISORDER are all earlier than from.
+        long pos = lowerBound(file, lo, hi, from.minus(MAX_DISORDER));
+        while (pos < hi && timestampAt(file, pos, buf).isBefore(from)) {
+            pos = lineEndAt(file, pos, hi, buf);
+        }
+        return pos;
+    }
+
+    /**
+     * Find the end of the last line whose timestamp is before {@code to}.
+     * Every line after the returned offset is at or after {@code to}. Lines
+     * before {@code lo} must all be before {@code to}.
+     */
+    private static long sliceEnd(FileChannel file, long lo, long hi, LocalDateTime to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        // Lines before one earlier than to - MAX_DISORDER are all in the slice, and lines
+        // after one at or beyond to + MAX_DISORDER are all outside it, so only scan between.
+        long pos = lowerBound(file, lo, hi, to.minus(MAX_DISORDER));
+        long limit = lowerBound(file, pos, hi, to.plus(MAX_DISORDER));
+        long end = pos;
+        while (pos < limit) {
+            long next = lineEndAt(file, pos, limit, buf);
+            if (timestampAt(file, pos, buf).isBefore(to)) {
+                end = next;
+            }
+            pos = next;
+        }
+        return end;
+    }
+
+    /**
+     * Binary search between two line boundaries for the start of a line whose
+     * timestamp is not before {@code target}, where the line before it is
+     * before {@code target}. In a file with non-decreasing timestamps this is
+     * the first such line.
+     */
+    private static long lowerBound(FileChannel file, long lo, long hi, LocalDateTime target) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        while (lo < hi) {
+            long mid = lineEndAt(file, Math.max(lo, lo + (hi - lo) / 2 - 1), hi, buf);
+            if (mid <= lo || mid >= hi) {
+                mid = lo; // no line starts in the upper half, so test the first line
+            }
+            if (timestampAt(file, mid, buf).isBefore(target)) {
+                lo = lineEndAt(file, mid, hi, buf);
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the offset just past the newline at or after {@code pos}, or {@code limit}
+     */
+    private static long lineEndAt(FileChannel file, long pos, long limit, ByteBuffer buf) throws IOException {
+        while (pos < limit) {
+            buf.clear();
+            int read = file.read(buf, pos);
+            if (read <= 0) break;
+            for (int i = 0; i < read && pos + i < limit; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+        return limit;
+    }
+
+    private static long lastLineEnd(FileChannel file, long size) throws IOException {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        for (long pos = size - 1; pos >= 0; pos--) {
+            one.clear();
+            file.read(one, pos);
+            if (one.get(0) == '\n') {
+                return pos + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static LocalDateTime timestampAt(FileChannel file, long lineStart, ByteBuffer buf) throws IOException {
+        buf.clear();
+        int read = file.read(buf, lineStart);
+        for (int i = 0; i < read; i++) {
+            if (buf.get(i) == ',') {
+                String ts = new String(buf.array(), 0, i, StandardCharsets.US_ASCII);
+                try {
+                    return LocalDateTime.parse(ts);
+                } catch (DateTimeParseException e) {
+                    throw new IOException("Unparseable timestamp at offset " + lineStart + ": " + ts, e);
+                }
+            }
+        }
+        throw new IOException("No timestamp found at offset " + lineStart);
+    }
+
+    /**
+     * Read the request line with a deadline, so idle connections cannot hold
+     * an export thread. Channel reads ignore SO_TIMEOUT, but reads through the
+     * socket's stream adaptor honour it.
+     */
+    private static String readRequestLine(SocketChannel client) throws IOException {
+        client.socket().setSoTimeout(REQUEST_TIMEOUT_MS);
+        InputStream in = client.socket().getInputStream();
+        byte[] buf = new byte[MAX_REQUEST_BYTES];
+        int length = 0;
+        while (length < buf.length) {
+            int n = in.read(buf, length, buf.length - length);
+            if (n < 0) break;
+            for (int i = length; i < length + n; i++) {
+                if (buf[i] == '\n') {
+                    return new String(buf, 0, i, StandardCharsets.US_ASCII).trim();
+                }
+            }
+            length += n;
+        }
+        throw new IllegalArgumentException("request line missing or too long");
+    }
+
+    private static void writeAscii(SocketChannel client, String text) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        while (buf.hasRemaining()) {
+            client.write(buf);
+        }
+    }
+
+    private static final class ExportRequest {
+        private LocalDateTime from;
+        private LocalDateTime to;
+        private long offset;
+        private boolean gzip;
+
+        private static ExportRequest parse(String line) {
+            String[] parts = line.split("\\s+");
+            if (parts.length == 0 || !parts[0].equals("EXPORT")) {
+                throw new IllegalArgumentException("expected EXPORT request");
+            }
+            ExportRequest request = new ExportRequest();
+            try {
+                for (int i = 1; i < parts.length; i++) {
+                    String part = parts[i];
+                    if (part.equals("gzip")) {
+                        request.gzip = true;
+                    } else if (part.startsWith("from=")) {
+                        request.from = LocalDateTime.parse(part.substring(5));
+                    } else if (part.startsWith("to=")) {
+                        request.to = LocalDateTime.parse(part.substring(3));
+                    } else if (part.startsWith("offset=")) {
+                        request.offset = Long.parseLong(part.substring(7));
+                    } else {
+                        throw new IllegalArgumentException("unknown option " + part);
+                    }
+                }
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("malformed request: " + e.getMessage());
+            }
+            if (request.offset < 0) {
+                throw new IllegalArgumentException("offset must not be negative");
+            }
+            if (request.from != null && request.to != null && !request.from.isBefore(request.to)) {
+                throw new IllegalArgumentException("from must be before to");
+            }
+            return request;
+        }
+    }
+}
@@ -4,43 +4,82 @@ import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class Co2LoggingServer {
 
     private static final Logger logger = Logger.getLogger(Co2LoggingServer.class.getName());
+    private static final int MIN_ACCEPTORS = 2;
+    private static final long MAX_FLUSH_MILLIS = 5_000;
+    private static final int RETRY_MIN_SECONDS = 5;
+    private static final int RETRY_MAX_SECONDS = 30;
+    private static final int MAX_ACCEPTORS = 4;
 
     private static final class QueuedConnection {
         private final Socket socket;
+        private final long sessionId;
         private final boolean queued;
         private final int queuePositionAtJoin;
+        private final long enqueuedAtMillis;
 
-        private QueuedConnection(Socket socket, boolean queued, int queuePositionAtJoin) {
+        // Guarded by this: whether the "queued" notice went out, and whether a
+        // worker has taken over the socket (after which the notifier must not write).
+        private boolean noticeSent;
+        private boolean served;
+
+        private QueuedConnection(Socket socket, long sessionId, boolean queued, int queuePositionAtJoin) {
             this.socket = socket;
+            this.sessionId = sessionId;
             this.queued = queued;
             this.queuePositionAtJoin = queuePositionAtJoin;
+            this.enqueuedAtMillis = System.currentTimeMillis();
         }
     }
 
+    // Put on the queue during a drain to tell a worker thread to exit.
+    private static final QueuedConnection STOP_WORKER = new QueuedConnection(null, 0, false, 0);
+
     private final int port;
     private final int maxClients;
     private final Co2ReadingRepository repository;
-    private volatile ServerSocket serverSocket;
+    private final Co2RateLimiter rateLimiter;
+    private final Co2ReadingHotTier readOnlyTier;
+    private final AccessLog accessLog;
+    private final AtomicLong nextSessionId;
+    private final int acceptorCount;
+    private final List<ServerSocket> listeners;
+    private final Set<Socket> activeSockets;
+    private final AtomicBoolean draining;
 
     // Worker pool has exactly maxClients threads. They pull sockets from the queue and handle them.
     private final ExecutorService workerPool;
+    // Writes "you are queued" notices so acceptor threads never block on a socket write.
+    private final ExecutorService notifierPool;
     private final BlockingQueue<QueuedConnection> waitingQueue;
     private final AtomicInteger activeClients;
     private final AtomicBoolean running;
@@ -53,9 +92,68 @@ public class Co2LoggingServer {
      * @param repository repository used to persist readings
      */
     public Co2LoggingServer(int port, int maxClients, Co2ReadingRepository repository) {
+        this(port, maxClients, repository, Co2RateLimiter.unlimited());
+    }
+
+    /**
+     * Create a CO2 logging server instance that rate limits submissions.
+     *
+     * @param port        TCP port to listen on
+     * @param maxClients  maximum number of concurrent client handler threads
+     * @param repository  repository used to persist readings
+     * @param rateLimiter per-user and per-role limiter shared by all sessions
+     */
+    public Co2LoggingServer(int port, int maxClients, Co2ReadingRepository repository, Co2RateLimiter rateLimiter) {
+        this(port, maxClients, repository, rateLimiter, AccessLog.disabled());
+    }
+
+    /**
+     * Create a CO2 logging server instance that rate limits submissions and
+     * records connection and session events in an access log.
+     *
+     * @param port        TCP port to listen on
+     * @param maxClients  maximum number of concurrent client handler threads
+     * @param repository  repository used to persist readings
+     * @param rateLimiter per-user and per-role limiter shared by all sessions
+     * @param accessLog   access log shared by the accept loop and all sessions
+     */
+    public Co2LoggingServer(int port, int maxClients, Co2ReadingRepository repository, Co2RateLimiter rateLimiter,
+                            AccessLog accessLog) {
+        this(port, maxClients, repository, rateLimiter, null, accessLog);
+    }
+
+    /**
+     * Create a read-only server, e.g. for a replication follower. Clients can
+     * query recent readings but cannot submit new ones.
+     *
+     * @param port       TCP port to listen on
+     * @param maxClients maximum number of concurrent client handler threads
+     * @param hotTier    hot tier used to answer queries
+     * @param accessLog  access log shared by the accept loop and all sessions
+     * @return the read-only server
+     */
+    public static Co2LoggingServer readOnly(int port, int maxClients, Co2ReadingHotTier hotTier, AccessLog accessLog) {
+        return new Co2LoggingServer(port, maxClients, null, Co2RateLimiter.unlimited(), hotTier, accessLog);
+    }
+
+    private Co2LoggingServer(int port, int maxClients, Co2ReadingRepository repository,
+                             Co2RateLimiter rateLimiter, Co2ReadingHotTier readOnlyTier, AccessLog accessLog) {
         this.port = port;
         this.maxClients = maxClients;
         this.repository = repository;
+        this.rateLimiter = rateLimiter;
+        this.readOnlyTier = readOnlyTier;
+        this.accessLog = accessLog;
+        this.nextSessionId = new AtomicLong();
+        this.acceptorCount = Math.max(MIN_ACCEPTORS, Math.min(MAX_ACCEPTORS, Runtime.getRuntime().availableProcessors()));
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.activeSockets = ConcurrentHashMap.newKeySet();
+        this.draining = new AtomicBoolean(false);
+        this.notifierPool = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "queue-notifier");
+            t.setDaemon(true);
+            return t;
+        });
         this.workerPool = Executors.newFixedThreadPool(maxClients);
         this.waitingQueue = new LinkedBlockingQueue<>();
         this.activeClients = new AtomicInteger(0);
@@ -63,11 +161,18 @@ public class Co2LoggingServer {
     }
 
     /**
-     * Start accepting client connections.
+     * Start accepting client connections. Blocks until the server stops.
      *
      * The server will allow only {@code maxClients} active client sessions at once.
      * If more clients connect, they will be placed into an in-app waiting queue and
      * immediately receive a message telling them they are queued.
+     *
+     * Several acceptor threads accept connections. Where the platform supports
+     * {@code SO_REUSEPORT} (e.g. Linux) each acceptor binds its own listening
+     * socket and the kernel spreads connections across them; otherwise the
+     * acceptors share one socket. Either way, a port already in use by
+     * another process fails to bind. Acceptors only enqueue connections; the
+     * queued notice is written by a separate notifier thread.
      */
     public void start() {
         logger.info("Starting CO2 logging server on port " + port + " (max clients: " + maxClients + ")...");
@@ -82,36 +187,101 @@ public class Co2LoggingServer {
             workerPool.submit(this::workerLoop);
         }
 
-        try (ServerSocket ss = new ServerSocket(port)) {
-            this.serverSocket = ss;
-            logger.info("Server is listening on port " + port);
-
-            while (running.get() && !workerPool.isShutdown()) {
-                Socket clientSocket = ss.accept();
-                logger.info("Accepted connection from " + clientSocket.getRemoteSocketAddress());
+        List<Thread> acceptors = new ArrayList<>();
+        try {
+            openListeners();
+            logger.info("Server is listening on port " + port + " (" + acceptorCount + " acceptors, " +
+                    listeners.size() + " listening sockets)");
 
-                boolean willWait = activeClients.get() >= maxClients || !waitingQueue.isEmpty();
-                int position = willWait ? waitingQueue.size() + 1 : 0;
+            for (int i = 0; i < acceptorCount; i++) {
+                ServerSocket ss = listeners.get(i % listeners.size());
+                Thread t = new Thread(() -> acceptLoop(ss), "acceptor-" + i);
+                acceptors.add(t);
+                t.start();
+            }
+            for (Thread t : acceptors) {
+                t.join();
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Server error: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // A drain in progress owns the shutdown sequence.
+            if (!draining.get()) {
+                shutdownInternal();
+            }
+        }
+    }
 
-                if (willWait) {
-                    if (!sendQueuedMessage(clientSocket, position)) {
-                        // Client disconnected / failed to write the queue message.
-                        closeQuietly(clientSocket);
-                        continue;
-                    }
+    private void openListeners() throws IOException {
+        int sockets = reusePortSupported() ? acceptorCount : 1;
+        int bindPort = port;
+        if (sockets > 1) {
+            // SO_REUSEPORT would let a second server join this port and split its clients, so first bind
+            // once without it: a port that is already in use then fails with BindException as before.
+            try (ServerSocket probe = new ServerSocket()) {
+                probe.bind(new InetSocketAddress(port));
+                bindPort = probe.getLocalPort(); // pins an ephemeral port so every socket shares it
+            }
+        }
+        for (int i = 0; i < sockets; i++) {
+            ServerSocket ss = new ServerSocket();
+            try {
+                if (sockets > 1) {
+                    ss.setOption(StandardSocketOptions.SO_REUSEPORT, true);
                 }
-
-                waitingQueue.offer(new QueuedConnection(clientSocket, willWait, position));
+                ss.bind(new InetSocketAddress(bindPort));
+            } catch (IOException e) {
+                ss.close();
+                throw e;
             }
+            listeners.add(ss);
+        }
+    }
 
+    private static boolean reusePortSupported() {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void acceptLoop(ServerSocket ss) {
+        try {
+            while (running.get() && !workerPool.isShutdown()) {
+                dispatch(ss.accept());
+            }
         } catch (IOException e) {
             if (running.get()) {
                 logger.log(Level.SEVERE, "Server error: " + e.getMessage(), e);
+                // Any acceptor failing stops the whole server, as a single accept loop would.
+                running.set(false);
+                closeServerSocket();
             } else {
                 logger.info("Server socket closed; stopping accept loop.");
             }
-        } finally {
-            shutdownInternal();
+        }
+    }
+
+    private void dispatch(Socket clientSocket) {
+        long sessionId = nextSessionId.incrementAndGet();
+        accessLog.record(AccessEvent.CONNECT, sessionId,
+                AccessLog.packAddress(clientSocket.getRemoteSocketAddress()), clientSocket.getPort());
+
+        boolean willWait = activeClients.get() >= maxClients || !waitingQueue.isEmpty();
+        int position = willWait ? waitingQueue.size() + 1 : 0;
+
+        QueuedConnection qc = new QueuedConnection(clientSocket, sessionId, willWait, position);
+        waitingQueue.offer(qc);
+
+        if (willWait) {
+            try {
+                notifierPool.execute(() -> sendQueuedNotice(qc));
+            } catch (RejectedExecutionException e) {
+                // Shutting down: the drain tells everything left in the queue to reconnect later.
+            }
         }
     }
 
@@ -124,23 +294,54 @@ public class Co2LoggingServer {
                 Thread.currentThread().interrupt();
                 return;
             }
+            if (qc == STOP_WORKER) {
+                return;
+            }
 
-            int nowActive = activeClients.incrementAndGet();
+            activeClients.incrementAndGet();
+            activeSockets.add(qc.socket);
             try {
                 if (qc.queued) {
-                    sendNowServingMessage(qc.socket);
-                    logger.info("Dequeued client (joined at position " + qc.queuePositionAtJoin + "). Active clients: " + nowActive);
+                    boolean noticeSent;
+                    synchronized (qc) {
+                        qc.served = true;
+                        noticeSent = qc.noticeSent;
+                    }
+                    // Only tell the client it is being served if it was told it was queued.
+                    if (noticeSent) {
+                        sendNowServingMessage(qc.socket);
+                    }
+                    accessLog.record(AccessEvent.DEQUEUE, qc.sessionId, qc.queuePositionAtJoin,
+                            System.currentTimeMillis() - qc.enqueuedAtMillis);
                 }
 
-                new ClientHandler(qc.socket, repository).run();
+                ClientHandler handler = readOnlyTier != null
+                        ? new ClientHandler(qc.socket, readOnlyTier, accessLog, qc.sessionId)
+                        : new ClientHandler(qc.socket, repository, rateLimiter, accessLog, qc.sessionId);
+                handler.run();
 
             } finally {
+                activeSockets.remove(qc.socket);
                 activeClients.decrementAndGet();
                 closeQuietly(qc.socket);
             }
         }
     }
 
+    private void sendQueuedNotice(QueuedConnection qc) {
+        synchronized (qc) {
+            if (qc.served) {
+                return; // a worker already picked it up
+            }
+            if (sendQueuedMessage(qc.socket, qc.queuePositionAtJoin)) {
+                qc.noticeSent = true;
+            } else {
+                // Client disconnected; the worker will find the socket closed.
+                closeQuietly(qc.socket);
+            }
+        }
+    }
+
     private boolean sendQueuedMessage(Socket socket, int position) {
         try {
             ClientSession session = new ClientSession(
@@ -154,6 +355,21 @@ public class Co2LoggingServer {
         }
     }
 
+    /**
+     * Tell a client to reconnect after a randomised delay, so that clients
+     * turned away by a drain do not all come back at once.
+     */
+    private void sendRetryAfter(Socket socket) {
+        int retryAfter = ThreadLocalRandom.current().nextInt(RETRY_MIN_SECONDS, RETRY_MAX_SECONDS + 1);
+        sendLineQuietly(socket, "Server is restarting. Please reconnect in " + retryAfter + " seconds.");
+    }
+
+    private void sendLineQuietly(Socket socket, String line) {
+        try {
+            new PrintWriter(socket.getOutputStream(), true).println(line);
+        } catch (IOException ignored) {}
+    }
+
     private void sendNowServingMessage(Socket socket) {
         try {
             ClientSession session = new ClientSession(
@@ -182,9 +398,110 @@ public class Co2LoggingServer {
         shutdownInternal();
     }
 
+    /**
+     * Shut down gracefully within {@code deadline}.
+     *
+     * The server stops accepting connections and tells every queued client to
+     * reconnect after a randomised delay, so that they do not all come back at
+     * once. Active sessions are allowed to finish until the deadline; any still
+     * running are then sent the same randomised reconnect delay and disconnected. Finally any readings the repository is buffering are
+     * flushed, waiting no more than a few seconds.
+     *
+     * @param deadline how long active sessions may take to finish
+     * @return what happened during the drain
+     */
+    public DrainReport drain(Duration deadline) {
+        long startNanos = System.nanoTime();
+        if (!running.compareAndSet(true, false) || !draining.compareAndSet(false, true)) {
+            // No sessions to drain, but readings may still be buffered (e.g. after stop()), so flush anyway.
+            return new DrainReport(Duration.ofNanos(System.nanoTime() - startNanos), 0, 0, 0, flushRepository());
+        }
+        logger.info("Draining server (deadline " + deadline.toMillis() + " ms)...");
+
+        closeServerSocket();
+        notifierPool.shutdown();
+
+        int activeAtStart = activeClients.get();
+        int rejected = rejectQueued();
+        for (int i = 0; i < maxClients; i++) {
+            waitingQueue.offer(STOP_WORKER);
+        }
+        workerPool.shutdown();
+
+        int dropped = 0;
+        try {
+            if (!workerPool.awaitTermination(deadline.toMillis(), TimeUnit.MILLISECONDS)) {
+                // Session threads block in socket reads, which ignore interrupts; closing the socket ends them.
+                dropped = activeClients.get();
+                for (Socket socket : activeSockets) {
+                    sendRetryAfter(socket);
+                    closeQuietly(socket);
+                }
+                workerPool.shutdownNow();
+                workerPool.awaitTermination(2, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything an acceptor enqueued while we were draining.
+        rejected += rejectQueued();
+        boolean flushed = flushRepository();
+
+        DrainReport report = new DrainReport(Duration.ofNanos(System.nanoTime() - startNanos),
+                Math.max(0, activeAtStart - dropped), dropped, rejected, flushed);
+        logger.info(report.toString());
+        return report;
+    }
+
+    private int rejectQueued() {
+        List<QueuedConnection> queued = new ArrayList<>();
+        waitingQueue.drainTo(queued);
+        int rejected = 0;
+        for (QueuedConnection qc : queued) {
+            if (qc == STOP_WORKER) continue;
+            synchronized (qc) {
+                qc.served = true; // keep the notifier from writing to it
+                sendRetryAfter(qc.socket);
+            }
+            closeQuietly(qc.socket);
+            rejected++;
+        }
+        return rejected;
+    }
+
+    /**
+     * Flush the repository on a separate thread so a stuck disk cannot hold up
+     * shutdown for longer than {@link #MAX_FLUSH_MILLIS}.
+     */
+    private boolean flushRepository() {
+        if (repository == null) {
+            return true;
+        }
+        CompletableFuture<Void> flush = CompletableFuture.runAsync(() -> {
+            try {
+                repository.flush();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+        try {
+            flush.get(MAX_FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            logger.warning("Repository flush did not finish within " + MAX_FLUSH_MILLIS + " ms");
+        } catch (ExecutionException e) {
+            logger.log(Level.SEVERE, "Repository flush failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
     private void shutdownInternal() {
         running.set(false);
         closeServerSocket();
+        notifierPool.shutdownNow();
         workerPool.shutdownNow();
 
         // Best-effort cleanup of any queued sockets.
@@ -204,11 +521,12 @@ public class Co2LoggingServer {
     }
 
     private void closeServerSocket() {
-        ServerSocket ss = this.serverSocket;
-        if (ss != null && !ss.isClosed()) {
-            try {
-                ss.close();
-            } catch (IOException ignored) {}
+        for (ServerSocket ss : listeners) {
+            if (!ss.isClosed()) {
+                try {
+                    ss.close();
+                } catch (IOException ignored) {}
+            }
         }
     }
 }
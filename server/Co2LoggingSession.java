@@ -5,14 +5,25 @@ import java.util.Optional;
 
 public final class Co2LoggingSession {
 
+    // Stored ids are interned for the life of the process, so clients must not be able to make them arbitrarily large.
+    private static final int MAX_USER_ID_LENGTH = 64;
+    private static final int MAX_POSTCODE_LENGTH = 16;
+
     private final ClientSession session;
     private final Co2ReadingRepository repository;
     private final Clock clock;
+    private final Co2RateLimiter rateLimiter;
 
     public Co2LoggingSession(ClientSession session, Co2ReadingRepository repository, Clock clock) {
+        this(session, repository, clock, Co2RateLimiter.unlimited());
+    }
+
+    public Co2LoggingSession(ClientSession session, Co2ReadingRepository repository, Clock clock,
+                             Co2RateLimiter rateLimiter) {
         this.session = session;
         this.repository = repository;
         this.clock = clock;
+        this.rateLimiter = rateLimiter;
     }
 
     public void run() throws IOException {
@@ -20,8 +31,8 @@ public final class Co2LoggingSession {
 
         String userId = session.askUntilValid(
                 "Enter your User ID:",
-                s -> s.isEmpty() ? Optional.empty() : Optional.of(s),
-                "User ID cannot be empty.");
+                s -> boundedLength(s, MAX_USER_ID_LENGTH),
+                "User ID must be 1 to " + MAX_USER_ID_LENGTH + " characters.");
 
         if (userId == null) return;
 
@@ -29,8 +40,8 @@ public final class Co2LoggingSession {
 
         String postcode = session.askUntilValid(
                 "Enter the postcode:",
-                s -> s.isEmpty() ? Optional.empty() : Optional.of(s),
-                "Postcode cannot be empty.");
+                s -> boundedLength(s, MAX_POSTCODE_LENGTH),
+                "Postcode must be 1 to " + MAX_POSTCODE_LENGTH + " characters.");
 
         if (postcode == null) return;
 
@@ -41,17 +52,38 @@ public final class Co2LoggingSession {
 
         if (co2 == null) return;
 
-        Co2Reading reading = new Co2Reading(clock.now(), employee.userId(), postcode, co2);
+        // Only a complete, valid submission spends a token, so abandoned sessions cannot drain a user's quota.
+        Co2RateLimiter.Decision decision = rateLimiter.acquire(employee);
+        if (decision != Co2RateLimiter.Decision.ALLOWED) {
+            session.record(AccessEvent.RATE_LIMITED, 0, 0);
+            session.sendLine(decision == Co2RateLimiter.Decision.USER_LIMITED
+                    ? "Too many readings submitted for this user. Please try again later."
+                    : "The server is receiving too many readings right now. Please try again later.");
+            return;
+        }
 
+        // A known postcode reuses the dictionary instance. Unknown input is not interned here, so text
+        // from clients that never store a reading is not retained.
+        Co2Reading reading = new Co2Reading(clock.now(), employee.userId(),
+                Co2Dictionaries.POSTCODES.canonicalIfPresent(postcode), co2);
+
+        long storeStart = clock.nanoTime();
         try {
             repository.append(reading);
+            EmployeeFactory.remember(employee);
+            session.record(AccessEvent.STORE_OK, 0, clock.nanoTime() - storeStart);
             session.sendLine("Reading stored. Thank you.");
         } catch (IOException e) {
+            session.record(AccessEvent.STORE_FAILED, 0, clock.nanoTime() - storeStart);
             session.sendLine("Failed to store reading.");
             throw e;
         }
     }
 
+    private static Optional<String> boundedLength(String s, int maxLength) {
+        return s.isEmpty() || s.length() > maxLength ? Optional.empty() : Optional.of(s);
+    }
+
     private static Optional<Double> parseCo2(String s) {
         try {
             double v = Double.parseDouble(s);
@@ -0,0 +1,48 @@
+package server;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+/**
+ * Session served by a read-only replica: instead of accepting a reading it
+ * reports recent readings for a postcode from the {@link Co2ReadingHotTier}.
+ */
+public final class Co2QuerySession {
+
+    private static final Duration QUERY_WINDOW = Duration.ofHours(24);
+
+    private final ClientSession session;
+    private final Co2ReadingHotTier hotTier;
+    private final Clock clock;
+
+    public Co2QuerySession(ClientSession session, Co2ReadingHotTier hotTier, Clock clock) {
+        this.session = session;
+        this.hotTier = hotTier;
+        this.clock = clock;
+    }
+
+    public void run() throws IOException {
+        session.sendLine("Welcome to the CO2 logging server (read-only replica). Readings cannot be submitted here.");
+
+        String postcode = session.askUntilValid(
+                "Enter a postcode to see readings from the last " + QUERY_WINDOW.toHours() + " hours:",
+                s -> s.isEmpty() ? Optional.empty() : Optional.of(s),
+                "Postcode cannot be empty.");
+
+        if (postcode == null) return;
+
+        LocalDateTime now = clock.now();
+        long to = Co2ReadingHotTier.toEpochMillis(now) + 1;
+        long from = Co2ReadingHotTier.toEpochMillis(now.minus(QUERY_WINDOW));
+        double average = hotTier.averagePpm(postcode, from, to);
+
+        if (Double.isNaN(average)) {
+            session.sendLine("No recent readings for " + postcode + ".");
+        } else {
+            session.sendLine("Average for " + postcode + " over the last " + QUERY_WINDOW.toHours() + " hours: " +
+                    String.format("%.1f", average) + " ppm.");
+        }
+    }
+}
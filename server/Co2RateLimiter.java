@@ -0,0 +1,234 @@
+package server;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Rate limits reading submissions with two layers of token buckets:
+ * one bucket per user id, sized by the user's {@link EmployeeRole}, and one
+ * shared bucket per role that caps the combined traffic of that role.
+ *
+ * Per-user buckets live in a {@link ConcurrentHashMap}, so lookups for
+ * different users do not share a lock. At most {@code maxTrackedUsers}
+ * buckets are held; once the map is full, users without a bucket are
+ * limited by their role bucket alone until idle buckets are evicted, so a
+ * flood of new user ids cannot lock out legitimate users. Eviction runs on a
+ * background thread started by {@link #start()}, never on the request path.
+ */
+public final class Co2RateLimiter implements AutoCloseable {
+
+    /**
+     * Result of asking for a permit.
+     */
+    public enum Decision {
+        ALLOWED,
+        /** The user's own quota is used up. */
+        USER_LIMITED,
+        /** The quota shared by everyone with the user's role is used up. */
+        ROLE_LIMITED
+    }
+
+    private static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+    private static final int DEFAULT_MAX_TRACKED_USERS = 100_000;
+    private static final long SWEEP_INTERVAL_MILLIS = 10_000;
+
+    private final Map<EmployeeRole, RateLimitQuota> userQuotas;
+    private final Map<EmployeeRole, TokenBucket> roleBuckets;
+    private final ConcurrentHashMap<String, TokenBucket> userBuckets;
+    private final LongSupplier nanoTime;
+    private final long idleNanos;
+    private final int maxTrackedUsers;
+    private final AtomicInteger trackedUsers = new AtomicInteger();
+    private final boolean enabled;
+    private ScheduledExecutorService sweeper;
+
+    /**
+     * Create a rate limiter.
+     *
+     * @param userQuotas      quota applied to each individual user, by role
+     * @param roleQuotas      quota shared by all users of a role
+     * @param idleTimeout     how long a user bucket may stay unused before it is evicted
+     * @param maxTrackedUsers maximum number of user buckets held in memory
+     * @param nanoTime        monotonic time source in nanoseconds
+     */
+    public Co2RateLimiter(Map<EmployeeRole, RateLimitQuota> userQuotas,
+                          Map<EmployeeRole, RateLimitQuota> roleQuotas,
+                          Duration idleTimeout,
+                          int maxTrackedUsers,
+                          LongSupplier nanoTime) {
+        this(userQuotas, roleQuotas, idleTimeout, maxTrackedUsers, nanoTime, true);
+    }
+
+    private Co2RateLimiter(Map<EmployeeRole, RateLimitQuota> userQuotas,
+                           Map<EmployeeRole, RateLimitQuota> roleQuotas,
+                           Duration idleTimeout,
+                           int maxTrackedUsers,
+                           LongSupplier nanoTime,
+                           boolean enabled) {
+        this.nanoTime = Objects.requireNonNull(nanoTime, "nanoTime cannot be null");
+        this.idleNanos = idleTimeout.toNanos();
+        this.maxTrackedUsers = maxTrackedUsers;
+        this.enabled = enabled;
+        this.userBuckets = new ConcurrentHashMap<>();
+
+        long now = nanoTime.getAsLong();
+        this.userQuotas = new EnumMap<>(EmployeeRole.class);
+        this.roleBuckets = new EnumMap<>(EmployeeRole.class);
+
+        if (enabled) {
+            for (EmployeeRole role : EmployeeRole.values()) {
+                this.userQuotas.put(role, requireQuota(userQuotas, role));
+                this.roleBuckets.put(role, new TokenBucket(requireQuota(roleQuotas, role), now));
+            }
+        }
+    }
+
+    /**
+     * Rate limiter with the default quotas. Developers get a larger per-user
+     * allowance for test rigs, but a smaller role-wide share so that a runaway
+     * rig cannot crowd out researchers in the field.
+     */
+    public static Co2RateLimiter withDefaultQuotas() {
+        return withDefaultQuotas(System::nanoTime);
+    }
+
+    /**
+     * Rate limiter with the default quotas and a custom time source, e.g.
+     * {@link VirtualClock#nanoTime()} in simulations.
+     */
+    public static Co2RateLimiter withDefaultQuotas(LongSupplier nanoTime) {
+        Map<EmployeeRole, RateLimitQuota> perUser = new EnumMap<>(EmployeeRole.class);
+        perUser.put(EmployeeRole.RESEARCHER, new RateLimitQuota(1, 10));
+        perUser.put(EmployeeRole.DEVELOPER, new RateLimitQuota(20, 200));
+        perUser.put(EmployeeRole.ADMIN, new RateLimitQuota(5, 50));
+
+        Map<EmployeeRole, RateLimitQuota> perRole = new EnumMap<>(EmployeeRole.class);
+        perRole.put(EmployeeRole.RESEARCHER, new RateLimitQuota(500, 1_000));
+        perRole.put(EmployeeRole.DEVELOPER, new RateLimitQuota(200, 400));
+        perRole.put(EmployeeRole.ADMIN, new RateLimitQuota(50, 100));
+
+        return new Co2RateLimiter(perUser, perRole, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_TRACKED_USERS, nanoTime);
+    }
+
+    /**
+     * Rate limiter that allows every request.
+     */
+    public static Co2RateLimiter unlimited() {
+        return new Co2RateLimiter(Map.of(), Map.of(), DEFAULT_IDLE_TIMEOUT, 0, System::nanoTime, false);
+    }
+
+    /**
+     * Try to take one permit for the given employee.
+     *
+     * @param employee the employee submitting a reading
+     * @return true if the request may proceed, false if it is over quota
+     */
+    public boolean tryAcquire(Employee employee) {
+        return acquire(employee) == Decision.ALLOWED;
+    }
+
+    /**
+     * Try to take one permit for the given employee, reporting which quota
+     * rejected the request.
+     *
+     * @param employee the employee submitting a reading
+     * @return whether the request may proceed, and if not, which quota is used up
+     */
+    public Decision acquire(Employee employee) {
+        if (!enabled) {
+            return Decision.ALLOWED;
+        }
+
+        long now = nanoTime.getAsLong();
+        EmployeeRole role = employee.role();
+        TokenBucket userBucket = userBuckets.get(employee.userId());
+        if (userBucket == null) {
+            // Null at capacity: the user is then limited by the role bucket alone.
+            userBucket = userBuckets.computeIfAbsent(employee.userId(), id -> newBucket(role, now));
+        }
+
+        if (userBucket != null && !userBucket.tryAcquire(now)) {
+            return Decision.USER_LIMITED;
+        }
+        if (!roleBuckets.get(role).tryAcquire(now)) {
+            if (userBucket != null) {
+                userBucket.refund();
+            }
+            return Decision.ROLE_LIMITED;
+        }
+        return Decision.ALLOWED;
+    }
+
+    /**
+     * @return number of per-user buckets currently held in memory
+     */
+    public int trackedUsers() {
+        return userBuckets.size();
+    }
+
+    /**
+     * Start evicting idle user buckets periodically on a background thread.
+     * Without this, a full limiter limits new users by role only until
+     * {@link #evictIdle()} is called.
+     */
+    public synchronized void start() {
+        if (!enabled || sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rate-limit-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::evictIdle, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the background eviction started by {@link #start()}.
+     */
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Remove every per-user bucket that has been idle for the configured timeout.
+     */
+    public void evictIdle() {
+        long now = nanoTime.getAsLong();
+        userBuckets.forEach((userId, bucket) -> {
+            if (bucket.isIdle(now, idleNanos) && userBuckets.remove(userId, bucket)) {
+                trackedUsers.decrementAndGet();
+            }
+        });
+    }
+
+    // Returns null, so that nothing is inserted, when the map is already full.
+    private TokenBucket newBucket(EmployeeRole role, long now) {
+        if (trackedUsers.incrementAndGet() > maxTrackedUsers) {
+            trackedUsers.decrementAndGet();
+            return null;
+        }
+        return new TokenBucket(userQuotas.get(role), now);
+    }
+
+    private static RateLimitQuota requireQuota(Map<EmployeeRole, RateLimitQuota> quotas, EmployeeRole role) {
+        RateLimitQuota quota = quotas.get(role);
+        if (quota == null) {
+            throw new IllegalArgumentException("Missing rate limit quota for role " + role);
+        }
+        return quota;
+    }
+}
@@ -2,6 +2,9 @@ package server;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Immutable data class representing a CO2 reading taken at a point in time.
@@ -27,6 +30,61 @@ public record Co2Reading(LocalDateTime timestamp, String userId, String postcode
                 co2Ppm;
     }
 
+    /**
+     * Parse a single CSV line produced by {@link #toCsvLine()}.
+     *
+     * @param line CSV line without the trailing newline
+     * @return the parsed reading
+     * @throws IllegalArgumentException if the line is not a valid reading
+     */
+    public static Co2Reading fromCsvLine(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 4) {
+            throw new IllegalArgumentException("Expected 4 CSV fields but found " + fields.size() + ": " + line);
+        }
+        try {
+            return new Co2Reading(
+                    LocalDateTime.parse(fields.get(0), CSV_TIMESTAMP_FORMAT),
+                    fields.get(1),
+                    fields.get(2),
+                    Double.parseDouble(fields.get(3)));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed CSV reading: " + line, e);
+        }
+    }
+
+    /**
+     * Split a CSV line into fields, undoing the quoting applied by {@link #escape(String)}.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
     /**
      * Escape a string for safe inclusion in CSV. Quoting and double-quoting
      * are applied when the value contains special characters. Returns an
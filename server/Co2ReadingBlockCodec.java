@@ -0,0 +1,361 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compressed columnar encoding for a block of readings.
+ *
+ * Each column is compressed the way time-series databases usually do it:
+ * <ul>
+ *   <li>timestamps (epoch milliseconds) as delta-of-delta, with small
+ *       variable-length bit buckets so evenly spaced readings cost one bit;</li>
+ *   <li>{@code co2Ppm} as the XOR of each value with the previous one, storing
+ *       only the meaningful bits, so repeated and nearby values are cheap;</li>
+ *   <li>userId and postcode through a per-block dictionary, one bit when the
+ *       value repeats the previous row and a few bits for the dictionary index
+ *       otherwise.</li>
+ * </ul>
+ *
+ * Block layout: varint count, user dictionary, postcode dictionary (each a
+ * varint size followed by length-prefixed UTF-8 strings), then the bit stream
+ * with all columns interleaved row by row.
+ */
+public final class Co2ReadingBlockCodec {
+
+    private Co2ReadingBlockCodec() {}
+
+    /**
+     * Encode {@code count} readings held in column arrays.
+     *
+     * @return the encoded block
+     */
+    public static byte[] encode(long[] epochMillis, String[] userIds, String[] postcodes, double[] co2Ppm, int count) {
+        Map<String, Integer> users = new LinkedHashMap<>();
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            users.putIfAbsent(userIds[i], users.size());
+            codes.putIfAbsent(postcodes[i], codes.size());
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeVarint(header, count);
+        writeDictionary(header, users);
+        writeDictionary(header, codes);
+
+        int userWidth = widthFor(users.size());
+        int codeWidth = widthFor(codes.size());
+
+        BitWriter bits = new BitWriter(count * 4 + 16);
+        long prevTs = 0;
+        long prevDelta = 0;
+        long prevValue = 0;
+        int prevLead = -1;
+        int prevTrail = 0;
+        int prevUser = -1;
+        int prevCode = -1;
+
+        for (int i = 0; i < count; i++) {
+            // Timestamp: raw for the first row, delta-of-delta afterwards.
+            if (i == 0) {
+                bits.write(epochMillis[0], 64);
+            } else {
+                long delta = epochMillis[i] - prevTs;
+                writeDeltaOfDelta(bits, delta - prevDelta);
+                prevDelta = delta;
+            }
+            prevTs = epochMillis[i];
+
+            // CO2 value: raw for the first row, XOR with previous afterwards.
+            long value = Double.doubleToRawLongBits(co2Ppm[i]);
+            if (i == 0) {
+                bits.write(value, 64);
+            } else {
+                long xor = value ^ prevValue;
+                if (xor == 0) {
+                    bits.write(0, 1);
+                } else {
+                    int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+                    int trail = Long.numberOfTrailingZeros(xor);
+                    if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+                        bits.write(0b10, 2);
+                        bits.write(xor >>> prevTrail, 64 - prevLead - prevTrail);
+                    } else {
+                        int significant = 64 - lead - trail;
+                        bits.write(0b11, 2);
+                        bits.write(lead, 5);
+                        bits.write(significant - 1, 6);
+                        bits.write(xor >>> trail, significant);
+                        prevLead = lead;
+                        prevTrail = trail;
+                    }
+                }
+            }
+            prevValue = value;
+
+            prevUser = writeDictionaryIndex(bits, users.get(userIds[i]), prevUser, userWidth);
+            prevCode = writeDictionaryIndex(bits, codes.get(postcodes[i]), prevCode, codeWidth);
+        }
+
+        byte[] head = header.toByteArray();
+        byte[] body = bits.toByteArray();
+        byte[] block = Arrays.copyOf(head, head.length + body.length);
+        System.arraycopy(body, 0, block, head.length, body.length);
+        return block;
+    }
+
+    private static void writeDeltaOfDelta(BitWriter bits, long dod) {
+        if (dod == 0) {
+            bits.write(0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            bits.write(0b10, 2);
+            bits.write(dod, 7);
+        } else if (dod >= -256 && dod < 256) {
+            bits.write(0b110, 3);
+            bits.write(dod, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            bits.write(0b1110, 4);
+            bits.write(dod, 12);
+        } else if (dod >= -(1 << 19) && dod < (1 << 19)) {
+            bits.write(0b11110, 5);
+            bits.write(dod, 20);
+        } else {
+            bits.write(0b11111, 5);
+            bits.write(dod, 64);
+        }
+    }
+
+    private static int writeDictionaryIndex(BitWriter bits, int index, int previous, int width) {
+        if (index == previous) {
+            bits.write(0, 1);
+        } else {
+            bits.write(1, 1);
+            bits.write(index, width);
+        }
+        return index;
+    }
+
+    private static void writeDictionary(ByteArrayOutputStream out, Map<String, Integer> dictionary) {
+        writeVarint(out, dictionary.size());
+        for (String value : dictionary.keySet()) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, utf8.length);
+            out.write(utf8, 0, utf8.length);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int widthFor(int dictionarySize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(dictionarySize - 1));
+    }
+
+    /**
+     * Reusable block decoder. Dictionary strings are translated to ids of the
+     * given {@link StringDictionary} instances once per block; the per-row loop
+     * then works on primitives only and allocates nothing.
+     */
+    public static final class Decoder {
+
+        private final StringDictionary userIds;
+        private final StringDictionary postcodes;
+        private int[] userMap = new int[64];
+        private int[] postcodeMap = new int[64];
+        private int position;
+
+        public Decoder(StringDictionary userIds, StringDictionary postcodes) {
+            this.userIds = userIds;
+            this.postcodes = postcodes;
+        }
+
+        /**
+         * Decode one block and pass every reading to {@code visitor}.
+         *
+         * @param data   buffer holding the block
+         * @param offset offset of the block in {@code data}
+         * @param length length of the block in bytes
+         * @return number of readings decoded
+         */
+        public int decode(byte[] data, int offset, int length, ReadingVisitor visitor) {
+            position = offset;
+            int count = readVarint(data);
+            int userCount = readDictionary(data, userIds, true);
+            int codeCount = readDictionary(data, postcodes, false);
+            int userWidth = widthFor(userCount);
+            int codeWidth = widthFor(codeCount);
+
+            BitReader bits = new BitReader(data, position, offset + length);
+            long ts = 0;
+            long delta = 0;
+            long value = 0;
+            int lead = 0;
+            int trail = 0;
+            int user = -1;
+            int code = -1;
+
+            for (int i = 0; i < count; i++) {
+                if (i == 0) {
+                    ts = bits.read(64);
+                } else {
+                    delta += readDeltaOfDelta(bits);
+                    ts += delta;
+                }
+
+                if (i == 0) {
+                    value = bits.read(64);
+                } else if (bits.read(1) != 0) {
+                    if (bits.read(1) != 0) {
+                        lead = (int) bits.read(5);
+                        int significant = (int) bits.read(6) + 1;
+                        trail = 64 - lead - significant;
+                    }
+                    value ^= bits.read(64 - lead - trail) << trail;
+                }
+
+                if (bits.read(1) != 0) {
+                    user = (int) bits.read(userWidth);
+                }
+                if (bits.read(1) != 0) {
+                    code = (int) bits.read(codeWidth);
+                }
+
+                visitor.visit(ts, userMap[user], postcodeMap[code], Double.longBitsToDouble(value));
+            }
+            return count;
+        }
+
+        private static long readDeltaOfDelta(BitReader bits) {
+            if (bits.read(1) == 0) return 0;
+            if (bits.read(1) == 0) return signExtend(bits.read(7), 7);
+            if (bits.read(1) == 0) return signExtend(bits.read(9), 9);
+            if (bits.read(1) == 0) return signExtend(bits.read(12), 12);
+            if (bits.read(1) == 0) return signExtend(bits.read(20), 20);
+            return bits.read(64);
+        }
+
+        private static long signExtend(long value, int width) {
+            return (value << (64 - width)) >> (64 - width);
+        }
+
+        private int readDictionary(byte[] data, StringDictionary dictionary, boolean users) {
+            int size = readVarint(data);
+            int[] map = users ? userMap : postcodeMap;
+            if (map.length < size) {
+                map = new int[Math.max(size, map.length * 2)];
+                if (users) userMap = map; else postcodeMap = map;
+            }
+            for (int i = 0; i < size; i++) {
+                int len = readVarint(data);
+                map[i] = dictionary.idOf(new String(data, position, len, StandardCharsets.UTF_8));
+                position += len;
+            }
+            return size;
+        }
+
+        private int readVarint(byte[] data) {
+            int result = 0;
+            int shift = 0;
+            while (true) {
+                byte b = data[position++];
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] buf;
+        private int size;
+        private long acc;
+        private int accBits;
+
+        BitWriter(int initialCapacity) {
+            this.buf = new byte[Math.max(16, initialCapacity)];
+        }
+
+        /** Append the low {@code n} bits of {@code value}, most significant first. */
+        void write(long value, int n) {
+            if (n == 0) return;
+            if (n < 64) value &= (1L << n) - 1;
+
+            int free = 64 - accBits;
+            if (n < free) {
+                acc = (acc << n) | value;
+                accBits += n;
+            } else {
+                int rest = n - free;
+                acc = (free == 64 ? 0 : acc << free) | (value >>> rest);
+                emit(acc);
+                acc = rest == 0 ? 0 : value & ((1L << rest) - 1);
+                accBits = rest;
+            }
+        }
+
+        byte[] toByteArray() {
+            int bytes = (accBits + 7) >>> 3;
+            long tail = accBits == 0 ? 0 : acc << (64 - accBits);
+            ensure(bytes);
+            for (int i = 0; i < bytes; i++) {
+                buf[size++] = (byte) (tail >>> (56 - 8 * i));
+            }
+            accBits = 0;
+            acc = 0;
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void emit(long word) {
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                buf[size++] = (byte) (word >>> (56 - 8 * i));
+            }
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+            }
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] data;
+        private final int limitBits;
+        private int bitPos;
+
+        BitReader(byte[] data, int offset, int limit) {
+            this.data = data;
+            this.bitPos = offset * 8;
+            this.limitBits = limit * 8;
+        }
+
+        /** Read {@code n} bits (0 to 64), most significant first. */
+        long read(int n) {
+            if (bitPos + n > limitBits) {
+                throw new IllegalStateException("Corrupt block: read past end");
+            }
+            long result = 0;
+            while (n > 0) {
+                int bitOffset = bitPos & 7;
+                int available = 8 - bitOffset;
+                int take = Math.min(available, n);
+                int b = ((data[bitPos >>> 3] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+                result = (result << take) | b;
+                n -= take;
+                bitPos += take;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package server;
+
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Repository that stores readings in compressed blocks (see
+ * {@link Co2ReadingBlockCodec}) instead of CSV lines.
+ *
+ * Readings are collected in memory and sealed into a block every
+ * {@code blockSize} readings, or when {@link #flush()} is called. Until its
+ * block is sealed, each reading is also appended as a CSV line to a
+ * write-ahead file ({@code <file>.wal}) before {@link #append} returns, and
+ * the write-ahead file is replayed when the repository is reopened. An
+ * acknowledged reading therefore survives a process crash, as with
+ * {@link Co2ReadingCsvRepository}; like that repository, nothing is fsynced.
+ * Timestamps are stored with millisecond precision.
+ *
+ * File layout: repeated {@code int length, int crc32, byte[length] block}. A
+ * block left incomplete by a crash is cut off when the file is reopened. The
+ * write-ahead file starts with the block file length it follows on from, so
+ * a file left over from a block that was sealed just before a crash is
+ * recognised and discarded instead of replayed twice.
+ */
+public class Co2ReadingBlockRepository implements Co2ReadingRepository {
+
+    private static final Logger logger = Logger.getLogger(Co2ReadingBlockRepository.class.getName());
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    private static final int FRAME_HEADER_BYTES = 8;
+    private static final int WAL_HEADER_BYTES = Long.BYTES;
+
+    private final Path filePath;
+    private final Path walPath;
+    private FileChannel wal;
+    private final int blockSize;
+    private final StringDictionary userIds;
+    private final StringDictionary postcodes;
+
+    private final long[] timestamps;
+    private final String[] users;
+    private final String[] codes;
+    private final double[] values;
+    private int pending;
+
+    /**
+     * Open (or create) a block file.
+     *
+     * @param fileName  path to the block file
+     * @param blockSize number of readings per sealed block
+     * @param userIds   dictionary that decoded user ids are translated into
+     * @param postcodes dictionary that decoded postcodes are translated into
+     * @throws RuntimeException if the file cannot be created or repaired
+     */
+    public Co2ReadingBlockRepository(String fileName, int blockSize, StringDictionary userIds, StringDictionary postcodes) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1");
+        }
+        this.filePath = Paths.get(fileName);
+        this.walPath = walPathFor(filePath);
+        this.blockSize = blockSize;
+        this.userIds = userIds;
+        this.postcodes = postcodes;
+        this.timestamps = new long[blockSize];
+        this.users = new String[blockSize];
+        this.codes = new String[blockSize];
+        this.values = new double[blockSize];
+
+        try {
+            Path parent = filePath.getParent();
+            if (parent != null && !Files.exists(parent)) {
+                Files.createDirectories(parent);
+            }
+            long valid;
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.READ)) {
+                valid = validLength(channel);
+                if (valid < channel.size()) {
+                    logger.warning("Truncating incomplete block at offset " + valid + " in " + filePath);
+                    channel.truncate(valid);
+                }
+            }
+            recoverWal(valid);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to initialize block repository file: " + filePath, e);
+        }
+    }
+
+    /**
+     * Log the reading to the write-ahead file and add it to the open block,
+     * sealing the block when it is full.
+     */
+    @Override
+    public synchronized void append(Co2Reading reading) throws IOException {
+        writeWalLine(reading.toCsvLine());
+        addPending(reading);
+        if (pending == blockSize) {
+            seal();
+        }
+    }
+
+    /**
+     * Seal the open block, even if it is not full.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (pending > 0) {
+            seal();
+        }
+    }
+
+    /**
+     * Visit every stored reading, oldest first, including those in the open
+     * block. Each sealed block is read into one reused buffer and decoded
+     * without allocating per reading. Appends are only blocked while the open
+     * block is copied, not during the scan.
+     *
+     * @return number of readings visited
+     */
+    public long scan(ReadingVisitor visitor) throws IOException {
+        long end;
+        int openCount;
+        long[] openTimestamps;
+        int[] openUsers;
+        int[] openCodes;
+        double[] openValues;
+
+        // Sealed blocks never change, so only the file length and the open block need a consistent snapshot.
+        synchronized (this) {
+            end = Files.size(filePath);
+            openCount = pending;
+            openTimestamps = Arrays.copyOf(timestamps, pending);
+            openValues = Arrays.copyOf(values, pending);
+            openUsers = new int[pending];
+            openCodes = new int[pending];
+            for (int i = 0; i < pending; i++) {
+                openUsers[i] = userIds.idOf(users[i]);
+                openCodes[i] = postcodes.idOf(codes[i]);
+            }
+        }
+
+        long visited;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            visited = decodeBlocks(channel, 0, end, new Co2ReadingBlockCodec.Decoder(userIds, postcodes), visitor);
+        }
+
+        for (int i = 0; i < openCount; i++) {
+            visitor.visit(openTimestamps[i], openUsers[i], openCodes[i], openValues[i]);
+        }
+        return visited + openCount;
+    }
+
+    public Path filePath() {
+        return filePath;
+    }
+
+    /**
+     * @return the write-ahead file that holds the unsealed readings of a block file
+     */
+    static Path walPathFor(Path blockFile) {
+        return blockFile.resolveSibling(blockFile.getFileName() + ".wal");
+    }
+
+    /**
+     * List the file offset of every complete block in a block file, so that
+     * the blocks can be split between workers. Only the frame headers are
+     * read; checksums are verified when the blocks are decoded.
+     *
+     * @param channel open block file
+     * @return block start offsets followed by the end offset of the last complete block
+     */
+    static long[] blockBoundaries(FileChannel channel) throws IOException {
+        long end = channel.size();
+        long[] offsets = new long[16];
+        int n = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        long position = 0;
+        while (true) {
+            if (n == offsets.length) {
+                offsets = Arrays.copyOf(offsets, n * 2);
+            }
+            offsets[n++] = position;
+            if (position + FRAME_HEADER_BYTES > end) {
+                break;
+            }
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || position + FRAME_HEADER_BYTES + length > end) {
+                break; // block still being written, or cut short by a crash
+            }
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return Arrays.copyOf(offsets, n);
+    }
+
+    /**
+     * Read the unsealed readings from a write-ahead file, provided it follows
+     * on from {@code blockFileLength}. A torn final line is ignored.
+     *
+     * @param walPath         write-ahead file, which need not exist
+     * @param blockFileLength length of the block file the readings must follow on from
+     * @param limit           maximum number of readings to read
+     * @return the readings, or an empty list if the file is missing or belongs to a different block file length
+     */
+    static List<Co2Reading> readWal(Path walPath, long blockFileLength, int limit) throws IOException {
+        List<Co2Reading> readings = new ArrayList<>();
+        if (!Files.exists(walPath)) {
+            return readings;
+        }
+        try (FileChannel channel = FileChannel.open(walPath, StandardOpenOption.READ)) {
+            if (channel.size() < WAL_HEADER_BYTES) {
+                return readings;
+            }
+            ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_BYTES);
+            readFully(channel, header, 0);
+            if (header.getLong(0) != blockFileLength) {
+                return readings;
+            }
+            channel.position(WAL_HEADER_BYTES);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while (readings.size() < limit && (line = reader.readLine()) != null) {
+                try {
+                    readings.add(Co2Reading.fromCsvLine(line));
+                } catch (IllegalArgumentException e) {
+                    break; // torn final line from a crash mid-write
+                }
+            }
+        }
+        return readings;
+    }
+
+    /**
+     * Decode the blocks stored between two block boundaries, verifying each
+     * block's checksum.
+     *
+     * @return number of readings decoded
+     * @throws IOException if a block fails its checksum
+     */
+    static long decodeBlocks(FileChannel channel, long from, long to,
+                             Co2ReadingBlockCodec.Decoder decoder, ReadingVisitor visitor) throws IOException {
+        long visited = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        byte[] block = new byte[0];
+        long position = from;
+        while (position + FRAME_HEADER_BYTES <= to) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (block.length < length) {
+                block = new byte[length];
+            }
+            readFully(channel, ByteBuffer.wrap(block, 0, length), position + FRAME_HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(block, 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                throw new IOException("Corrupt block at offset " + position + ": checksum mismatch");
+            }
+            visited += decoder.decode(block, 0, length, visitor);
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return visited;
+    }
+
+    private void seal() throws IOException {
+        byte[] block = Co2ReadingBlockCodec.encode(timestamps, users, codes, values, pending);
+        CRC32 crc = new CRC32();
+        crc.update(block);
+
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_BYTES + block.length);
+        frame.putInt(block.length).putInt((int) crc.getValue()).put(block).flip();
+
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+
+        // Drop references so sealed strings can be collected.
+        Arrays.fill(users, 0, pending, null);
+        Arrays.fill(codes, 0, pending, null);
+        pending = 0;
+        resetWal(Files.size(filePath));
+    }
+
+    private void addPending(Co2Reading reading) {
+        timestamps[pending] = Co2ReadingHotTier.toEpochMillis(reading.timestamp());
+        users[pending] = reading.userId();
+        codes[pending] = reading.postcode();
+        values[pending] = reading.co2Ppm();
+        pending++;
+    }
+
+    /**
+     * Reload the open block from the write-ahead file, if it follows on from
+     * the current end of the block file, then start a fresh write-ahead file
+     * holding exactly the recovered readings.
+     */
+    private void recoverWal(long blockFileLength) throws IOException {
+        List<Co2Reading> recovered = readWal(walPath, blockFileLength, blockSize);
+
+        resetWal(blockFileLength);
+        for (Co2Reading reading : recovered) {
+            writeWalLine(reading.toCsvLine());
+            addPending(reading);
+        }
+        if (!recovered.isEmpty()) {
+            logger.info("Recovered " + recovered.size() + " unsealed readings from " + walPath);
+        }
+        if (pending == blockSize) {
+            seal();
+        }
+    }
+
+    /**
+     * Empty the write-ahead file and stamp it with the block file length it now follows on from.
+     */
+    private void resetWal(long blockFileLength) throws IOException {
+        if (wal == null) {
+            wal = FileChannel.open(walPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        }
+        wal.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(WAL_HEADER_BYTES).putLong(blockFileLength).flip();
+        wal.position(0);
+        while (header.hasRemaining()) {
+            wal.write(header);
+        }
+    }
+
+    private void writeWalLine(String line) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap((line + '\n').getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            wal.write(bytes);
+        }
+    }
+
+    /**
+     * @return length of the file prefix made of complete blocks with valid checksums
+     */
+    private static long validLength(FileChannel channel) throws IOException {
+        long position = 0;
+        long end = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_BYTES);
+        while (position + FRAME_HEADER_BYTES <= end) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 0 || position + FRAME_HEADER_BYTES + length > end) {
+                break;
+            }
+            ByteBuffer block = ByteBuffer.allocate(length);
+            readFully(channel, block, position + FRAME_HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            crc.update(block.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            position += FRAME_HEADER_BYTES + length;
+        }
+        return position;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of block file");
+            }
+            position += read;
+        }
+    }
+}
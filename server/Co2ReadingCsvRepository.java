@@ -39,6 +39,13 @@ public class Co2ReadingCsvRepository implements Co2ReadingRepository {
         }
     }
 
+    /**
+     * @return path of the CSV file backing this repository
+     */
+    public Path filePath() {
+        return filePath;
+    }
+
     /**
      * Append a reading to the CSV file. This method is synchronized so that only
      * one thread writes to the file at a time. The method will append a single
@@ -0,0 +1,193 @@
+package server;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity, in-memory copy of the most recent readings.
+ *
+ * Readings are kept off-heap in a single direct {@link ByteBuffer} laid out
+ * as struct-of-arrays (timestamps, CO2 values, user ids, postcode ids), so
+ * the garbage collector never sees them and scans touch only the columns they
+ * need. When the buffer is full the oldest reading is overwritten.
+ *
+ * There must be a single writer. Any number of readers may scan concurrently
+ * without locking: each slot is validated after it is read, and slots that
+ * the writer overwrote mid-read are skipped.
+ */
+public final class Co2ReadingHotTier {
+
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final int BYTES_PER_READING = Long.BYTES + Double.BYTES + Integer.BYTES + Integer.BYTES;
+
+    private final int capacity;
+    private final int mask;
+    private final ByteBuffer buffer;
+    private final int ppmOffset;
+    private final int userIdOffset;
+    private final int postcodeOffset;
+    private final StringDictionary userIds;
+    private final StringDictionary postcodes;
+
+    // claimed is bumped before a slot is written, published after. Readers use
+    // published to find the newest complete slot and claimed to detect overwrites.
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Create a hot tier.
+     *
+     * @param capacity  number of readings to retain (rounded up to a power of two)
+     * @param userIds   dictionary used to encode user ids
+     * @param postcodes dictionary used to encode postcodes
+     */
+    public Co2ReadingHotTier(int capacity, StringDictionary userIds, StringDictionary postcodes) {
+        if (capacity < 1 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.buffer = ByteBuffer.allocateDirect(this.capacity * BYTES_PER_READING).order(ByteOrder.nativeOrder());
+        this.ppmOffset = this.capacity * Long.BYTES;
+        this.userIdOffset = ppmOffset + this.capacity * Double.BYTES;
+        this.postcodeOffset = userIdOffset + this.capacity * Integer.BYTES;
+        this.userIds = userIds;
+        this.postcodes = postcodes;
+    }
+
+    /**
+     * Convert a reading timestamp to the epoch millisecond value stored in the
+     * hot tier. Timestamps carry no zone, so they are read as UTC.
+     */
+    public static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    /**
+     * Append a reading, overwriting the oldest one if the tier is full.
+     * Must only be called from one thread at a time.
+     *
+     * @param reading the reading to add
+     */
+    public void append(Co2Reading reading) {
+        append(toEpochMillis(reading.timestamp()),
+                userIds.idOf(reading.userId()),
+                postcodes.idOf(reading.postcode()),
+                reading.co2Ppm());
+    }
+
+    /**
+     * Append an already-encoded reading. Must only be called from one thread at a time.
+     */
+    public void append(long epochMillis, int userId, int postcode, double co2Ppm) {
+        long seq = published.get();
+        claimed.set(seq + 1);
+        VarHandle.storeStoreFence();
+
+        int slot = (int) (seq & mask);
+        buffer.putLong(slot * Long.BYTES, epochMillis);
+        buffer.putDouble(ppmOffset + slot * Double.BYTES, co2Ppm);
+        buffer.putInt(userIdOffset + slot * Integer.BYTES, userId);
+        buffer.putInt(postcodeOffset + slot * Integer.BYTES, postcode);
+
+        published.lazySet(seq + 1);
+    }
+
+    /**
+     * Visit every retained reading with {@code fromMillis <= timestamp < toMillis},
+     * oldest first. No objects are allocated per reading.
+     *
+     * @param fromMillis inclusive lower bound, epoch milliseconds
+     * @param toMillis   exclusive upper bound, epoch milliseconds
+     * @param visitor    callback receiving matching readings
+     * @return number of readings passed to the visitor
+     */
+    public int scan(long fromMillis, long toMillis, ReadingVisitor visitor) {
+        long end = published.get();
+        long start = Math.max(0, end - capacity);
+        int visited = 0;
+
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq & mask);
+            long ts = buffer.getLong(slot * Long.BYTES);
+            double ppm = buffer.getDouble(ppmOffset + slot * Double.BYTES);
+            int user = buffer.getInt(userIdOffset + slot * Integer.BYTES);
+            int postcode = buffer.getInt(postcodeOffset + slot * Integer.BYTES);
+
+            VarHandle.loadLoadFence();
+            if (claimed.get() > seq + capacity) {
+                continue; // overwritten while we were reading it
+            }
+
+            if (ts >= fromMillis && ts < toMillis) {
+                visitor.visit(ts, user, postcode, ppm);
+                visited++;
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Mean CO2 value for one postcode over a time window, computed directly
+     * from the off-heap columns.
+     *
+     * @param postcode   postcode to filter on
+     * @param fromMillis inclusive lower bound, epoch milliseconds
+     * @param toMillis   exclusive upper bound, epoch milliseconds
+     * @return the mean ppm, or {@link Double#NaN} if there are no matching readings
+     */
+    public double averagePpm(String postcode, long fromMillis, long toMillis) {
+        int postcodeId = postcodes.find(postcode);
+        if (postcodeId < 0) {
+            return Double.NaN;
+        }
+
+        long end = published.get();
+        long start = Math.max(0, end - capacity);
+        long count = 0;
+        double sum = 0;
+
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq & mask);
+            if (buffer.getInt(postcodeOffset + slot * Integer.BYTES) != postcodeId) {
+                continue;
+            }
+            long ts = buffer.getLong(slot * Long.BYTES);
+            double ppm = buffer.getDouble(ppmOffset + slot * Double.BYTES);
+
+            VarHandle.loadLoadFence();
+            if (claimed.get() > seq + capacity) {
+                continue;
+            }
+
+            if (ts >= fromMillis && ts < toMillis) {
+                sum += ppm;
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * @return number of readings currently retained
+     */
+    public int size() {
+        return (int) Math.min(published.get(), capacity);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public StringDictionary userIds() {
+        return userIds;
+    }
+
+    public StringDictionary postcodes() {
+        return postcodes;
+    }
+}
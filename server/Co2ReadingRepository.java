@@ -11,4 +11,12 @@ public interface Co2ReadingRepository {
      * @throws IOException if an I/O error occurs while persisting the reading
      */
     void append(Co2Reading reading) throws IOException;
+
+    /**
+     * Write out any readings this repository is still holding in memory.
+     * Repositories that store each reading as it arrives need not override this.
+     *
+     * @throws IOException if an I/O error occurs while writing
+     */
+    default void flush() throws IOException {}
 }
@@ -0,0 +1,350 @@
+package server;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds per-postcode and per-user summary reports (count, min, max and mean
+ * CO2) over the whole stored history.
+ *
+ * The data file is split into ranges that are aggregated in parallel on a
+ * {@link ForkJoinPool}. Each task aggregates into its own
+ * {@link IntAggregateMap}s keyed by {@link StringDictionary} ids, and the
+ * partial results are merged as the tasks join. Both CSV files and block
+ * files ({@link Co2ReadingBlockRepository}) are supported. For a block file,
+ * the readings not yet sealed into a block are read from its write-ahead
+ * file ({@code <file>.wal}) and included too.
+ */
+public class Co2ReportGenerator {
+
+    private static final Logger logger = Logger.getLogger(Co2ReportGenerator.class.getName());
+
+    private static final long CSV_SPLIT_BYTES = 8L * 1024 * 1024;
+    private static final int BLOCKS_PER_TASK = 64;
+    private static final String USAGE =
+            "Usage: Co2ReportGenerator dataFile outputDir [--from timestamp] [--to timestamp]";
+
+    private final StringDictionary userIds = new StringDictionary();
+    private final StringDictionary postcodes = new StringDictionary();
+    private final long fromMillis;
+    private final long toMillis;
+
+    /**
+     * @param from inclusive lower bound on reading timestamps, or null for no bound
+     * @param to   exclusive upper bound on reading timestamps, or null for no bound
+     */
+    public Co2ReportGenerator(LocalDateTime from, LocalDateTime to) {
+        this.fromMillis = from == null ? Long.MIN_VALUE : Co2ReadingHotTier.toEpochMillis(from);
+        this.toMillis = to == null ? Long.MAX_VALUE : Co2ReadingHotTier.toEpochMillis(to);
+    }
+
+    /**
+     * Generate reports for a stored data file.
+     *
+     * Usage: Co2ReportGenerator dataFile outputDir [--from timestamp] [--to timestamp]
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println(USAGE);
+            return;
+        }
+
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        try {
+            for (int i = 2; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--from" -> from = LocalDateTime.parse(requireValue(args, ++i));
+                    case "--to" -> to = LocalDateTime.parse(requireValue(args, ++i));
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            long readings = new Co2ReportGenerator(from, to).generate(Paths.get(args[0]), Paths.get(args[1]));
+            System.out.println("Summarised " + readings + " readings in " +
+                    (System.nanoTime() - start) / 1_000_000 + " ms; reports written to " + args[1]);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Report generation failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Aggregate {@code dataFile} and write {@code postcode_report.csv} and
+     * {@code user_report.csv} into {@code outputDir}.
+     *
+     * @return number of readings included in the reports
+     */
+    public long generate(Path dataFile, Path outputDir) throws IOException {
+        Partial result;
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            if (isCsv(channel)) {
+                result = invoke(new CsvRangeTask(channel, csvDataStart(channel), channel.size()));
+            } else {
+                // Only the frame headers are read here; each task verifies its own blocks' checksums.
+                long[] boundaries = Co2ReadingBlockRepository.blockBoundaries(channel);
+                result = invoke(new BlockRangeTask(channel, boundaries, 0, boundaries.length - 1));
+                addUnsealed(result, Co2ReadingBlockRepository.walPathFor(dataFile), boundaries[boundaries.length - 1]);
+            }
+        }
+
+        Files.createDirectories(outputDir);
+        writeReport(outputDir.resolve("postcode_report.csv"), "postcode", result.byPostcode, postcodes);
+        writeReport(outputDir.resolve("user_report.csv"), "userId", result.byUser, userIds);
+        return result.readings;
+    }
+
+    private static Partial invoke(RecursiveTask<Partial> task) throws IOException {
+        try {
+            return ForkJoinPool.commonPool().invoke(task);
+        } catch (IllegalStateException e) {
+            // A task that failed on another worker is rethrown wrapped once more, so search the whole chain.
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Add the readings of the open block, which are only in the write-ahead
+     * file. Skipped if that file does not follow on from the blocks read,
+     * e.g. because a block was sealed while the report was running.
+     */
+    private void addUnsealed(Partial result, Path walPath, long blockFileLength) throws IOException {
+        for (Co2Reading reading : Co2ReadingBlockRepository.readWal(walPath, blockFileLength, Integer.MAX_VALUE)) {
+            long millis = Co2ReadingHotTier.toEpochMillis(reading.timestamp());
+            if (millis >= fromMillis && millis < toMillis) {
+                result.add(userIds.idOf(reading.userId()), postcodes.idOf(reading.postcode()), reading.co2Ppm());
+            }
+        }
+    }
+
+    private static void writeReport(Path file, String keyName, IntAggregateMap stats, StringDictionary names)
+            throws IOException {
+        Integer[] keys = Arrays.stream(stats.keys()).boxed().toArray(Integer[]::new);
+        Arrays.sort(keys, Comparator.comparing(names::valueOf));
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println(keyName + ",count,minPpm,maxPpm,meanPpm");
+            for (int key : keys) {
+                long count = stats.count(key);
+                out.println(csvField(names.valueOf(key)) + ',' + count + ',' + stats.min(key) + ',' +
+                        stats.max(key) + ',' + String.format(Locale.ROOT, "%.2f", stats.sum(key) / count));
+            }
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
+    private static boolean isCsv(FileChannel channel) throws IOException {
+        byte[] header = "timestamp,".getBytes(StandardCharsets.US_ASCII);
+        if (channel.size() < header.length) {
+            return false;
+        }
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, header.length);
+        for (byte b : header) {
+            if (head.get() != b) return false;
+        }
+        return true;
+    }
+
+    private static long csvDataStart(FileChannel channel) throws IOException {
+        long size = Math.min(channel.size(), 256);
+        MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        for (int i = 0; i < size; i++) {
+            if (head.get(i) == '\n') return i + 1;
+        }
+        return size;
+    }
+
+    private static String requireValue(String[] args, int index) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        }
+        return args[index];
+    }
+
+    /**
+     * Per-task aggregation result.
+     */
+    private static final class Partial {
+        private final IntAggregateMap byPostcode = new IntAggregateMap();
+        private final IntAggregateMap byUser = new IntAggregateMap();
+        private long readings;
+
+        private void add(int user, int postcode, double ppm) {
+            byUser.add(user, ppm);
+            byPostcode.add(postcode, ppm);
+            readings++;
+        }
+
+        private Partial merge(Partial other) {
+            byPostcode.merge(other.byPostcode);
+            byUser.merge(other.byUser);
+            readings += other.readings;
+            return this;
+        }
+    }
+
+    /**
+     * Aggregates the CSV lines in a byte range, splitting at line boundaries
+     * while the range is larger than {@link #CSV_SPLIT_BYTES}.
+     */
+    @SuppressWarnings("serial") // fork/join tasks are never serialized
+    private final class CsvRangeTask extends RecursiveTask<Partial> {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        private CsvRangeTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Partial compute() {
+            try {
+                if (end - start > CSV_SPLIT_BYTES) {
+                    long mid = nextLineStart(start + (end - start) / 2);
+                    if (mid < end) {
+                        CsvRangeTask left = new CsvRangeTask(channel, start, mid);
+                        CsvRangeTask right = new CsvRangeTask(channel, mid, end);
+                        left.fork();
+                        Partial rightResult = right.compute();
+                        return left.join().merge(rightResult);
+                    }
+                }
+                return aggregate();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read " + start + "-" + end + ": " + e.getMessage(), e);
+            }
+        }
+
+        private Partial aggregate() throws IOException {
+            Partial partial = new Partial();
+            MappedByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            byte[] line = new byte[256];
+            int length = 0;
+
+            while (range.hasRemaining()) {
+                byte b = range.get();
+                if (b != '\n') {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[length++] = b;
+                    continue;
+                }
+                addLine(partial, line, length);
+                length = 0;
+            }
+            addLine(partial, line, length); // last line if the file has no trailing newline
+            return partial;
+        }
+
+        private void addLine(Partial partial, byte[] line, int length) {
+            if (length > 0 && line[length - 1] == '\r') length--;
+            if (length == 0) return;
+
+            Co2Reading reading;
+            try {
+                reading = Co2Reading.fromCsvLine(new String(line, 0, length, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+                logger.warning("Skipping malformed line: " + e.getMessage());
+                return;
+            }
+
+            long millis = Co2ReadingHotTier.toEpochMillis(reading.timestamp());
+            if (millis >= fromMillis && millis < toMillis) {
+                partial.add(userIds.idOf(reading.userId()), postcodes.idOf(reading.postcode()), reading.co2Ppm());
+            }
+        }
+
+        private long nextLineStart(long position) throws IOException {
+            long windowSize = Math.min(end - position, 64 * 1024);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) == '\n') return position + i + 1;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Aggregates a run of compressed blocks, splitting while there are more
+     * than {@link #BLOCKS_PER_TASK} blocks.
+     */
+    @SuppressWarnings("serial")
+    private final class BlockRangeTask extends RecursiveTask<Partial> {
+        private final FileChannel channel;
+        private final long[] boundaries;
+        private final int first;
+        private final int last;
+
+        private BlockRangeTask(FileChannel channel, long[] boundaries, int first, int last) {
+            this.channel = channel;
+            this.boundaries = boundaries;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (last - first > BLOCKS_PER_TASK) {
+                int mid = (first + last) >>> 1;
+                BlockRangeTask left = new BlockRangeTask(channel, boundaries, first, mid);
+                BlockRangeTask right = new BlockRangeTask(channel, boundaries, mid, last);
+                left.fork();
+                Partial rightResult = right.compute();
+                return left.join().merge(rightResult);
+            }
+
+            Partial partial = new Partial();
+            Co2ReadingBlockCodec.Decoder decoder = new Co2ReadingBlockCodec.Decoder(userIds, postcodes);
+            try {
+                Co2ReadingBlockRepository.decodeBlocks(channel, boundaries[first], boundaries[last], decoder,
+                        (millis, user, postcode, ppm) -> {
+                            if (millis >= fromMillis && millis < toMillis) {
+                                partial.add(user, postcode, ppm);
+                            }
+                        });
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to read blocks " + first + "-" + last + ": " + e.getMessage(), e);
+            }
+            return partial;
+        }
+    }
+}
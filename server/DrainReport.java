@@ -0,0 +1,22 @@
+package server;
+
+import java.time.Duration;
+
+/**
+ * Outcome of {@link Co2LoggingServer#drain(Duration)}.
+ *
+ * @param duration          time from the start of the drain until it finished
+ * @param completedSessions active sessions that finished within the deadline
+ * @param droppedSessions   active sessions cut off when the deadline passed
+ * @param rejectedQueued    queued clients told to reconnect later
+ * @param flushed           whether buffered repository writes were flushed in time
+ */
+public record DrainReport(Duration duration, int completedSessions, int droppedSessions,
+                          int rejectedQueued, boolean flushed) {
+
+    @Override
+    public String toString() {
+        return "Drained in " + duration.toMillis() + " ms: " + completedSessions + " sessions completed, " +
+                droppedSessions + " dropped, " + rejectedQueued + " queued clients asked to retry, flushed=" + flushed;
+    }
+}
@@ -1,15 +1,56 @@
 package server;
 
+import java.util.Arrays;
+
 public final class EmployeeFactory {
 
+    // Employees are immutable, so one instance per user id is shared by all
+    // sessions. Indexed by the user id's id in Co2Dictionaries.USER_IDS. Only
+    // users who have stored a reading are added (see remember), so ids typed
+    // by clients that are rate limited or give up are never retained.
+    private static volatile Employee[] cache = new Employee[256];
+
+    private static final Employee UNKNOWN = new Researcher("unknown");
+
     private EmployeeFactory() {}
 
     public static Employee fromUserId(String userId) {
         if (userId == null) {
-            return new Researcher("unknown");
+            return UNKNOWN;
         }
 
         String trimmed = userId.trim();
+        if (trimmed.isEmpty()) {
+            return create(trimmed); // rejected by the Employee constructor
+        }
+
+        int id = Co2Dictionaries.USER_IDS.find(trimmed);
+        if (id < 0) {
+            return create(trimmed);
+        }
+        Employee[] snapshot = cache;
+        Employee cached = id < snapshot.length ? snapshot[id] : null;
+        if (cached != null) {
+            return cached;
+        }
+        return cache(id, create(Co2Dictionaries.USER_IDS.valueOf(id)));
+    }
+
+    /**
+     * Intern the employee's user id and cache an employee for it, so later
+     * sessions for the same user share one instance. Call only after a
+     * reading from this user has been stored: the dictionary then grows with
+     * the stored data, not with whatever clients type.
+     */
+    public static void remember(Employee employee) {
+        int id = Co2Dictionaries.USER_IDS.idOf(employee.userId());
+        Employee[] snapshot = cache;
+        if (id >= snapshot.length || snapshot[id] == null) {
+            cache(id, create(Co2Dictionaries.USER_IDS.valueOf(id)));
+        }
+    }
+
+    private static Employee create(String trimmed) {
         String lower = trimmed.toLowerCase();
 
         if (lower.startsWith("admin:") || lower.startsWith("admin-") || lower.startsWith("a-") || lower.startsWith("a:")) {
@@ -24,4 +65,17 @@ public final class EmployeeFactory {
 
         return new Researcher(trimmed);
     }
+
+    private static synchronized Employee cache(int id, Employee employee) {
+        Employee[] current = cache;
+        if (id < current.length && current[id] != null) {
+            return current[id]; // another thread got there first
+        }
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+        }
+        current[id] = employee;
+        cache = current;
+        return employee;
+    }
 }
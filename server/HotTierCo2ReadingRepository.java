@@ -0,0 +1,86 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Repository decorator that copies every successfully stored reading into a
+ * {@link Co2ReadingHotTier}, so recent-data queries never need to read the
+ * underlying storage.
+ */
+public class HotTierCo2ReadingRepository implements Co2ReadingRepository {
+
+    private final Co2ReadingRepository delegate;
+    private final Co2ReadingHotTier hotTier;
+
+    /**
+     * @param delegate repository that durably stores readings
+     * @param hotTier  hot tier to fill; this repository becomes its only writer
+     */
+    public HotTierCo2ReadingRepository(Co2ReadingRepository delegate, Co2ReadingHotTier hotTier) {
+        this.delegate = delegate;
+        this.hotTier = hotTier;
+    }
+
+    /**
+     * Store the reading in the delegate and then in the hot tier. This method
+     * is synchronized because the hot tier accepts a single writer only.
+     */
+    @Override
+    public synchronized void append(Co2Reading reading) throws IOException {
+        delegate.append(reading);
+        hotTier.append(reading);
+    }
+
+    /**
+     * Fill the hot tier from the end of an existing CSV file, so that readings
+     * stored before a restart can still be queried. Only the last
+     * {@code maxBytes} of the file are read; the header, a partial first line
+     * and malformed lines are skipped.
+     *
+     * @param csvFile  CSV file in {@link Co2ReadingCsvRepository} format
+     * @param maxBytes maximum number of bytes to read from the end of the file
+     * @return number of readings loaded
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized int loadRecent(Path csvFile, long maxBytes) throws IOException {
+        int loaded = 0;
+        try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            long start = Math.max(0, channel.size() - maxBytes);
+            channel.position(start);
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            if (start > 0) {
+                reader.readLine(); // probably starts mid-line
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("timestamp,")) {
+                    continue;
+                }
+                try {
+                    hotTier.append(Co2Reading.fromCsvLine(line));
+                    loaded++;
+                } catch (IllegalArgumentException ignored) {
+                    // torn or corrupt line; it cannot be queried anyway
+                }
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    public Co2ReadingHotTier hotTier() {
+        return hotTier;
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pair of connected in-process {@link Transport}s. Lines written to one end
+ * are read from the other. The {@code String} objects themselves are handed
+ * over, so nothing is encoded, copied or sent through the kernel.
+ *
+ * Typical use is to run a session on one thread against {@link #serverEnd()}
+ * while a test client drives {@link #clientEnd()} from another.
+ */
+public final class InMemoryPipe {
+
+    // Identity-compared markers: "the other end closed" and "the next read times out".
+    private static final String EOF = new String("EOF");
+    private static final String TIMEOUT = new String("TIMEOUT");
+
+    private final Endpoint server;
+    private final Endpoint client;
+
+    /**
+     * @param readTimeoutMillis how long the server end waits for a line before
+     *                          throwing {@link SocketTimeoutException}; 0 waits forever
+     */
+    public InMemoryPipe(long readTimeoutMillis) {
+        BlockingQueue<String> toServer = new LinkedBlockingQueue<>();
+        BlockingQueue<String> toClient = new LinkedBlockingQueue<>();
+        this.server = new Endpoint(toServer, toClient, readTimeoutMillis);
+        this.client = new Endpoint(toClient, toServer, 0);
+    }
+
+    public Endpoint serverEnd() {
+        return server;
+    }
+
+    public Endpoint clientEnd() {
+        return client;
+    }
+
+    /**
+     * One end of the pipe.
+     */
+    public static final class Endpoint implements Transport, AutoCloseable {
+
+        private final BlockingQueue<String> incoming;
+        private final BlockingQueue<String> outgoing;
+        private final long readTimeoutMillis;
+        private volatile boolean closed;
+
+        private Endpoint(BlockingQueue<String> incoming, BlockingQueue<String> outgoing, long readTimeoutMillis) {
+            this.incoming = incoming;
+            this.outgoing = outgoing;
+            this.readTimeoutMillis = readTimeoutMillis;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            String line;
+            try {
+                if (readTimeoutMillis > 0) {
+                    line = incoming.poll(readTimeoutMillis, TimeUnit.MILLISECONDS);
+                    if (line == null) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                } else {
+                    line = incoming.take();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading", e);
+            }
+            if (line == TIMEOUT) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            if (line == EOF) {
+                incoming.offer(EOF); // keep reporting end of stream on later reads
+                return null;
+            }
+            return line;
+        }
+
+        @Override
+        public void writeLine(String line) {
+            if (!closed) {
+                outgoing.offer(line);
+            }
+        }
+
+        /**
+         * Make the other end's next read fail with
+         * {@link SocketTimeoutException}, as if this end had stayed silent for
+         * longer than the read timeout. Simulations on virtual time use this
+         * to inject timeouts without waiting for real ones.
+         */
+        public void timeOutPeer() {
+            if (!closed) {
+                outgoing.offer(TIMEOUT);
+            }
+        }
+
+        /**
+         * Close this end. The other end reads end of stream once it has
+         * consumed every line written before the close.
+         */
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                outgoing.offer(EOF);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from non-negative int keys (dictionary ids) to running
+ * count, sum, minimum and maximum of a value. Keys and statistics are kept in
+ * parallel primitive arrays, so adding a value never allocates unless the map
+ * has to grow.
+ *
+ * Not thread-safe: each worker fills its own map and the maps are merged
+ * afterwards.
+ */
+final class IntAggregateMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private long[] counts;
+    private double[] sums;
+    private double[] mins;
+    private double[] maxs;
+    private int size;
+
+    IntAggregateMap() {
+        allocate(64);
+    }
+
+    void add(int key, double value) {
+        int slot = slotFor(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            mins[slot] = value;
+            maxs[slot] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+                slot = slotFor(key);
+            }
+        }
+        counts[slot]++;
+        sums[slot] += value;
+        if (value < mins[slot]) mins[slot] = value;
+        if (value > maxs[slot]) maxs[slot] = value;
+    }
+
+    /**
+     * Fold every entry of {@code other} into this map.
+     */
+    void merge(IntAggregateMap other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            int key = other.keys[i];
+            if (key == EMPTY) continue;
+
+            int slot = slotFor(key);
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                mins[slot] = other.mins[i];
+                maxs[slot] = other.maxs[i];
+                if (++size * 2 > keys.length) {
+                    grow();
+                    slot = slotFor(key);
+                }
+            }
+            counts[slot] += other.counts[i];
+            sums[slot] += other.sums[i];
+            mins[slot] = Math.min(mins[slot], other.mins[i]);
+            maxs[slot] = Math.max(maxs[slot], other.maxs[i]);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys present in the map, in no particular order
+     */
+    int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        for (int key : keys) {
+            if (key != EMPTY) result[n++] = key;
+        }
+        return result;
+    }
+
+    long count(int key) {
+        int slot = slotFor(key);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    double sum(int key) {
+        return sums[slotFor(key)];
+    }
+
+    double min(int key) {
+        return mins[slotFor(key)];
+    }
+
+    double max(int key) {
+        return maxs[slotFor(key)];
+    }
+
+    private int slotFor(int key) {
+        int mask = keys.length - 1;
+        int hash = key * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldCounts = counts;
+        double[] oldSums = sums;
+        double[] oldMins = mins;
+        double[] oldMaxs = maxs;
+
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) continue;
+            int slot = slotFor(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            counts[slot] = oldCounts[i];
+            sums[slot] = oldSums[i];
+            mins[slot] = oldMins[i];
+            maxs[slot] = oldMaxs[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new long[capacity];
+        sums = new double[capacity];
+        mins = new double[capacity];
+        maxs = new double[capacity];
+    }
+}
@@ -0,0 +1,19 @@
+package server;
+
+/**
+ * Sustained rate and burst size for a token bucket.
+ *
+ * @param permitsPerSecond tokens added to the bucket every second
+ * @param burst            maximum number of tokens the bucket can hold
+ */
+public record RateLimitQuota(double permitsPerSecond, int burst) {
+
+    public RateLimitQuota {
+        if (!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond)) {
+            throw new IllegalArgumentException("permitsPerSecond must be a positive finite number");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package server;
+
+/**
+ * Callback used by allocation-free scans over stored readings. Strings are
+ * passed as {@link StringDictionary} ids so no objects are created per row.
+ */
+@FunctionalInterface
+public interface ReadingVisitor {
+
+    /**
+     * @param epochMillis reading timestamp, see {@link Co2ReadingHotTier#toEpochMillis}
+     * @param userId      dictionary id of the user id
+     * @param postcode    dictionary id of the postcode
+     * @param co2Ppm      CO2 concentration in parts per million
+     */
+    void visit(long epochMillis, int userId, int postcode, double co2Ppm);
+}
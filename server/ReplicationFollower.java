@@ -0,0 +1,274 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the leader's CSV stream (see {@link ReplicationLeader}) and applies
+ * each reading to a local repository.
+ *
+ * After every batch, the applied offset is saved to a small file together
+ * with the length of the local data file at that point. On restart, and
+ * before every reconnect, the data file is truncated back to that length, so
+ * readings from a batch that was applied but not recorded (e.g. because of a
+ * crash in between) are discarded and then applied again exactly once.
+ */
+public class ReplicationFollower implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(ReplicationFollower.class.getName());
+
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int READ_TIMEOUT_MS = 10_000;
+    private static final long MIN_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final String leaderHost;
+    private final int leaderPort;
+    private final Co2ReadingRepository repository;
+    private final Path dataFile;
+    private final Path offsetFile;
+    private final AtomicBoolean running;
+
+    private volatile long appliedOffset;
+    // Length of dataFile once the batch ending at appliedOffset was applied.
+    private long appliedDataLength;
+    private volatile long leaderEnd;
+    private volatile long lastCaughtUpMillis;
+    private volatile Thread thread;
+    private volatile Socket socket;
+
+    /**
+     * @param leaderHost host of the leader's replication port
+     * @param leaderPort the leader's replication port
+     * @param repository local repository that replicated readings are appended to
+     * @param dataFile   file the repository appends to; nothing else may write to it
+     * @param offsetFile file used to remember the applied offset across restarts
+     */
+    public ReplicationFollower(String leaderHost, int leaderPort, Co2ReadingRepository repository, Path dataFile,
+                               Path offsetFile) {
+        this.leaderHost = leaderHost;
+        this.leaderPort = leaderPort;
+        this.repository = repository;
+        this.dataFile = dataFile;
+        this.offsetFile = offsetFile;
+        this.running = new AtomicBoolean(false);
+    }
+
+    /**
+     * Load the saved replication state and discard readings in the data file
+     * that belong to a batch that was never recorded as applied. Call this
+     * before reading the data file, e.g. to warm a cache; {@link #start()}
+     * calls it too.
+     *
+     * @throws IOException if the state cannot be read, or the data file is
+     *                     shorter than the state says, i.e. it lost readings
+     */
+    public void recover() throws IOException {
+        loadState();
+        discardUnappliedReadings();
+    }
+
+    /**
+     * Start replicating on a background daemon thread.
+     */
+    public void start() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        recover();
+        leaderEnd = appliedOffset;
+        lastCaughtUpMillis = System.currentTimeMillis();
+
+        Thread t = new Thread(this, "replication-follower");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        closeSocket();
+        Thread t = thread;
+        if (t != null) t.interrupt();
+    }
+
+    /**
+     * @return bytes of the leader's log not yet applied here, as of the last batch received
+     */
+    public long lagBytes() {
+        return Math.max(0, leaderEnd - appliedOffset);
+    }
+
+    /**
+     * @return milliseconds since this follower was last fully caught up with the leader,
+     *         or 0 if it is caught up now
+     */
+    public long lagMillis() {
+        return lagBytes() == 0 ? 0 : System.currentTimeMillis() - lastCaughtUpMillis;
+    }
+
+    public long appliedOffset() {
+        return appliedOffset;
+    }
+
+    @Override
+    public void run() {
+        long backoff = MIN_BACKOFF_MS;
+
+        while (running.get()) {
+            try {
+                replicate();
+                backoff = MIN_BACKOFF_MS;
+            } catch (IOException e) {
+                if (running.get()) {
+                    logger.warning("Replication from " + leaderHost + ":" + leaderPort +
+                            " interrupted: " + e.getMessage() + "; retrying in " + backoff + " ms");
+                }
+            } finally {
+                closeSocket();
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(MAX_BACKOFF_MS, backoff * 2);
+        }
+    }
+
+    private void replicate() throws IOException {
+        // A batch that failed part-way through may have left readings behind.
+        discardUnappliedReadings();
+
+        Socket s = new Socket();
+        socket = s;
+        s.connect(new InetSocketAddress(leaderHost, leaderPort), CONNECT_TIMEOUT_MS);
+        s.setSoTimeout(READ_TIMEOUT_MS);
+        s.setTcpNoDelay(true);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+
+        out.writeInt(ReplicationLeader.MAGIC);
+        out.writeLong(appliedOffset);
+        out.flush();
+        logger.info("Replicating from " + leaderHost + ":" + leaderPort + " at offset " + appliedOffset);
+
+        byte[] batch = new byte[0];
+        while (running.get()) {
+            int length = in.readInt();
+            if (length == ReplicationLeader.OFFSET_REJECTED) {
+                logger.severe("Leader rejected offset " + appliedOffset + "; stopping replication.");
+                running.set(false);
+                return;
+            }
+
+            long start = in.readLong();
+            leaderEnd = in.readLong();
+            if (batch.length < length) {
+                batch = new byte[length];
+            }
+            in.readFully(batch, 0, length);
+
+            if (start < appliedOffset) {
+                // Offsets only move forward (the leader may skip ahead past the CSV header).
+                throw new IOException("Leader sent offset " + start + " behind applied offset " + appliedOffset);
+            }
+
+            apply(batch, length);
+            repository.flush();
+            appliedDataLength = Files.size(dataFile);
+            appliedOffset = start + length;
+            saveState();
+            if (appliedOffset >= leaderEnd) {
+                lastCaughtUpMillis = System.currentTimeMillis();
+            }
+
+            out.writeLong(appliedOffset);
+            out.flush();
+        }
+    }
+
+    private void apply(byte[] batch, int length) throws IOException {
+        int lineStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (batch[i] != '\n') {
+                continue;
+            }
+            int lineEnd = (i > lineStart && batch[i - 1] == '\r') ? i - 1 : i;
+            if (lineEnd > lineStart) {
+                String line = new String(batch, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+                try {
+                    repository.append(Co2Reading.fromCsvLine(line));
+                } catch (IllegalArgumentException e) {
+                    logger.log(Level.WARNING, "Skipping unparseable replicated line: " + line, e);
+                }
+            }
+            lineStart = i + 1;
+        }
+    }
+
+    private void loadState() throws IOException {
+        if (!Files.exists(offsetFile)) {
+            appliedOffset = 0;
+            appliedDataLength = Files.size(dataFile);
+            return;
+        }
+        String[] fields = Files.readString(offsetFile, StandardCharsets.UTF_8).trim().split(" ");
+        try {
+            appliedOffset = fields[0].isEmpty() ? 0 : Long.parseLong(fields[0]);
+            // Offset files written before the data length was recorded hold only the offset.
+            appliedDataLength = fields.length > 1 ? Long.parseLong(fields[1]) : Files.size(dataFile);
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt replication offset file: " + offsetFile, e);
+        }
+    }
+
+    private void saveState() throws IOException {
+        Path tmp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+        Files.writeString(tmp, appliedOffset + " " + appliedDataLength, StandardCharsets.UTF_8);
+        Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void discardUnappliedReadings() throws IOException {
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < appliedDataLength) {
+                throw new IOException("Replica " + dataFile + " is " + size + " bytes but " + appliedDataLength +
+                        " bytes were applied; remove " + offsetFile + " to replicate from scratch");
+            }
+            if (size > appliedDataLength) {
+                channel.truncate(appliedDataLength);
+                logger.warning("Discarded " + (size - appliedDataLength) + " bytes of " + dataFile +
+                        " from a batch not recorded as applied; it will be applied again");
+            }
+        }
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Ships the leader's CSV file to followers over TCP.
+ *
+ * The CSV file is append-only, so it doubles as the replication log and a
+ * byte offset into it identifies a position in the stream. A follower opens a
+ * connection, sends the offset it has applied up to, and then receives batches
+ * of whole CSV lines starting at that offset. After applying each batch it
+ * acknowledges the new offset. If the connection drops the follower simply
+ * reconnects and resumes from its last applied offset.
+ *
+ * Wire format (all integers big-endian):
+ * <pre>
+ * follower -> leader: int MAGIC, long offset
+ * leader -> follower: repeated { int length, long startOffset, long leaderEnd, byte[length] }
+ * follower -> leader: long appliedOffset after every batch
+ * </pre>
+ * A batch of length 0 is a heartbeat. A length of -1 tells the follower that
+ * its offset is beyond the end of the leader's file. Batches are normally at
+ * most 64 KiB, but always hold at least one whole line, however long.
+ */
+public class ReplicationLeader {
+
+    private static final Logger logger = Logger.getLogger(ReplicationLeader.class.getName());
+
+    static final int MAGIC = 0xC02_5EED;
+    static final int OFFSET_REJECTED = -1;
+
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final long POLL_INTERVAL_MS = 50;
+    private static final long HEARTBEAT_INTERVAL_MS = 1_000;
+    private static final int ACK_TIMEOUT_MS = 30_000;
+
+    private final int port;
+    private final Path logFile;
+    private final ExecutorService followerPool;
+    private final Map<SocketAddress, Long> followerOffsets;
+    private final AtomicBoolean running;
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param port    TCP port followers connect to
+     * @param logFile CSV file written by the leader's {@link Co2ReadingCsvRepository}
+     */
+    public ReplicationLeader(int port, Path logFile) {
+        this.port = port;
+        this.logFile = logFile;
+        this.followerPool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "replication-leader");
+            t.setDaemon(true);
+            return t;
+        });
+        this.followerOffsets = new ConcurrentHashMap<>();
+        this.running = new AtomicBoolean(false);
+    }
+
+    /**
+     * Start listening for followers on a background thread.
+     */
+    public void start() throws IOException {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        serverSocket = new ServerSocket(port);
+        logger.info("Replication leader listening on port " + port);
+        followerPool.submit(this::acceptLoop);
+    }
+
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        try {
+            ServerSocket ss = serverSocket;
+            if (ss != null) ss.close();
+        } catch (IOException ignored) {}
+        followerPool.shutdownNow();
+    }
+
+    /**
+     * @return number of followers currently connected
+     */
+    public int followerCount() {
+        return followerOffsets.size();
+    }
+
+    /**
+     * Replication lag of the slowest connected follower, in bytes of CSV not
+     * yet acknowledged. Returns 0 if no followers are connected.
+     */
+    public long maxFollowerLagBytes() {
+        long end;
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            end = channel.size();
+        } catch (IOException e) {
+            return 0;
+        }
+        long lag = 0;
+        for (long acked : followerOffsets.values()) {
+            lag = Math.max(lag, end - acked);
+        }
+        return lag;
+    }
+
+    private void acceptLoop() {
+        while (running.get()) {
+            try {
+                Socket socket = serverSocket.accept();
+                followerPool.submit(() -> serveFollower(socket));
+            } catch (IOException e) {
+                if (running.get()) {
+                    logger.log(Level.WARNING, "Replication accept failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void serveFollower(Socket socket) {
+        SocketAddress follower = socket.getRemoteSocketAddress();
+        try (socket;
+             FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())))
+        {
+            socket.setSoTimeout(ACK_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+
+            if (in.readInt() != MAGIC) {
+                logger.warning("Rejected replication connection from " + follower + ": bad handshake");
+                return;
+            }
+
+            long offset = Math.max(in.readLong(), headerEnd(channel));
+            if (offset > channel.size()) {
+                logger.warning("Follower " + follower + " requested offset " + offset +
+                        " beyond end of log (" + channel.size() + ")");
+                out.writeInt(OFFSET_REJECTED);
+                out.flush();
+                return;
+            }
+
+            logger.info("Follower " + follower + " connected; resuming from offset " + offset);
+            followerOffsets.put(follower, offset);
+
+            ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+            long lastSend = 0;
+
+            while (running.get()) {
+                int length = readWholeLines(channel, offset, buffer);
+                if (length == 0 && !buffer.hasRemaining()) {
+                    // A single line longer than the buffer; grow it rather than stall on heartbeats forever.
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+
+                if (length == 0 && now - lastSend < HEARTBEAT_INTERVAL_MS) {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                    continue;
+                }
+
+                out.writeInt(length);
+                out.writeLong(offset);
+                out.writeLong(channel.size());
+                out.write(buffer.array(), 0, length);
+                out.flush();
+                lastSend = now;
+
+                long acked = in.readLong();
+                if (acked != offset + length) {
+                    throw new IOException("Follower acknowledged unexpected offset " + acked);
+                }
+                offset = acked;
+                followerOffsets.put(follower, offset);
+                if (buffer.capacity() > BATCH_BYTES) {
+                    buffer = ByteBuffer.allocate(BATCH_BYTES);
+                }
+            }
+        } catch (IOException e) {
+            logger.info("Follower " + follower + " disconnected: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            followerOffsets.remove(follower);
+        }
+    }
+
+    /**
+     * Read as many complete lines as fit in the buffer, starting at {@code offset}.
+     *
+     * @return number of bytes of complete lines now at the start of the buffer
+     */
+    private static int readWholeLines(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer, offset);
+        if (read <= 0) {
+            return 0;
+        }
+        byte[] bytes = buffer.array();
+        for (int i = read - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0; // only a partially written line so far
+    }
+
+    /**
+     * @return offset of the first byte after the CSV header line
+     */
+    private static long headerEnd(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int read = channel.read(buffer, 0);
+        for (int i = 0; i < read; i++) {
+            if (buffer.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,421 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Runnable consistency checks for the lock-free, bit-level and bookkeeping
+ * components, which are hard to exercise by hand through a client.
+ *
+ * Usage: SelfCheck
+ *
+ * Prints one line per check and exits with status 1 if any check failed.
+ */
+public class SelfCheck {
+
+    private final List<String> failures = new ArrayList<>();
+    private int checks;
+
+    public static void main(String[] args) throws Exception {
+        SelfCheck check = new SelfCheck();
+        check.rateLimiterCapAndEviction();
+        check.hotTierOverwrite();
+        check.hotTierConcurrentScan();
+        check.accessLogDropCounting();
+        check.accessLogConcurrentProducers();
+        check.blockCodecRoundTrip();
+        check.replicationLoopback();
+
+        System.out.println(check.checks + " checks, " + check.failures.size() + " failed");
+        if (!check.failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private void check(boolean ok, String description) {
+        checks++;
+        System.out.println((ok ? "PASS " : "FAIL ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Once the limiter tracks {@code maxTrackedUsers} buckets, new users fall
+     * back to the role bucket instead of being rejected outright, and
+     * eviction frees exactly the slots it removes.
+     */
+    private void rateLimiterCapAndEviction() {
+        long[] now = {0};
+        Map<EmployeeRole, RateLimitQuota> perUser = new EnumMap<>(EmployeeRole.class);
+        Map<EmployeeRole, RateLimitQuota> perRole = new EnumMap<>(EmployeeRole.class);
+        for (EmployeeRole role : EmployeeRole.values()) {
+            perUser.put(role, new RateLimitQuota(1, 1));
+            perRole.put(role, new RateLimitQuota(1, 3));
+        }
+        Co2RateLimiter limiter = new Co2RateLimiter(perUser, perRole, Duration.ofMinutes(1), 2, () -> now[0]);
+
+        check(limiter.acquire(new Researcher("r-1")) == Co2RateLimiter.Decision.ALLOWED
+                && limiter.acquire(new Researcher("r-2")) == Co2RateLimiter.Decision.ALLOWED,
+                "rate limiter admits users up to its tracking cap");
+        check(limiter.acquire(new Researcher("r-3")) == Co2RateLimiter.Decision.ALLOWED
+                && limiter.trackedUsers() == 2, "a user beyond the cap is admitted by the role bucket, untracked");
+        check(limiter.acquire(new Researcher("r-1")) == Co2RateLimiter.Decision.USER_LIMITED,
+                "a tracked user over their own quota is user limited");
+        check(limiter.acquire(new Researcher("r-4")) == Co2RateLimiter.Decision.ROLE_LIMITED,
+                "an untracked user is role limited once the role bucket is empty");
+
+        now[0] += Duration.ofMinutes(2).toNanos();
+        limiter.evictIdle();
+        check(limiter.trackedUsers() == 0, "idle user buckets are evicted");
+        limiter.acquire(new Researcher("r-5"));
+        limiter.acquire(new Researcher("r-6"));
+        limiter.acquire(new Researcher("r-7"));
+        check(limiter.trackedUsers() == 2, "eviction frees exactly the slots it removed (" +
+                limiter.trackedUsers() + " tracked)");
+    }
+
+    /**
+     * Once full, the hot tier keeps exactly the newest {@code capacity}
+     * readings, scans them oldest first and honours the time bounds.
+     */
+    private void hotTierOverwrite() {
+        Co2ReadingHotTier tier = new Co2ReadingHotTier(8, new StringDictionary(), new StringDictionary());
+        int postcode = tier.postcodes().idOf("AB1");
+        for (int i = 0; i < 20; i++) {
+            tier.append(i, 0, postcode, i * 10.0);
+        }
+
+        List<Long> seen = new ArrayList<>();
+        tier.scan(Long.MIN_VALUE, Long.MAX_VALUE, (ts, user, pc, ppm) -> seen.add(ts));
+        check(tier.size() == 8, "hot tier size is capped at its capacity");
+        check(seen.equals(List.of(12L, 13L, 14L, 15L, 16L, 17L, 18L, 19L)),
+                "hot tier scan returns the newest readings, oldest first: " + seen);
+
+        int inRange = tier.scan(14, 17, (ts, user, pc, ppm) -> {});
+        check(inRange == 3, "hot tier scan honours [from, to) bounds");
+        check(tier.averagePpm("AB1", 14, 17) == 150.0, "hot tier average over [14, 17) is 150");
+        check(Double.isNaN(tier.averagePpm("ZZ9", 0, 100)), "hot tier average for an unknown postcode is NaN");
+        check(tier.scan(0, 12, (ts, user, pc, ppm) -> {}) == 0, "overwritten readings are no longer visible");
+    }
+
+    /**
+     * A reader scanning while the writer laps it must skip overwritten slots
+     * rather than return a reading assembled from two different appends.
+     * Every column of an append is derived from its timestamp, so a torn read
+     * shows up as a mismatch.
+     */
+    private void hotTierConcurrentScan() throws InterruptedException {
+        Co2ReadingHotTier tier = new Co2ReadingHotTier(64, new StringDictionary(), new StringDictionary());
+        long appends = 2_000_000;
+
+        Thread writer = new Thread(() -> {
+            for (long ts = 0; ts < appends; ts++) {
+                tier.append(ts, (int) ts, (int) (ts >>> 1), ts);
+            }
+        });
+        writer.start();
+
+        long[] torn = new long[1];
+        long[] visited = new long[1];
+        while (writer.isAlive()) {
+            tier.scan(Long.MIN_VALUE, Long.MAX_VALUE, (ts, user, pc, ppm) -> {
+                visited[0]++;
+                if (user != (int) ts || pc != (int) (ts >>> 1) || ppm != ts) {
+                    torn[0]++;
+                }
+            });
+        }
+        writer.join();
+
+        check(torn[0] == 0, "concurrent hot tier scans saw no torn readings (" + visited[0] + " visited)");
+        check(tier.size() == 64, "hot tier is full after the concurrent run");
+    }
+
+    /**
+     * With no writer draining it, the access log ring accepts exactly its
+     * capacity and counts every later event as dropped. Once started, the
+     * writer persists the buffered events and reports the drops.
+     */
+    private void accessLogDropCounting() throws IOException {
+        Path dir = Files.createTempDirectory("co2-selfcheck");
+        try {
+            Path file = dir.resolve("access.log");
+            AccessLog log = new AccessLog(file, 16, 1 << 20, 1);
+            for (int i = 0; i < 100; i++) {
+                log.record(AccessEvent.PROMPT, i, i, 0);
+            }
+            check(log.droppedEvents() == 84, "full access log ring drops and counts the excess (" +
+                    log.droppedEvents() + " dropped)");
+
+            log.start();
+            log.close();
+            List<String> lines = Files.readAllLines(file);
+            check(log.writtenEvents() == 16, "access log writes the buffered events on close");
+            check(lines.size() == 17 && lines.get(16).endsWith("DROPPED total=84"),
+                    "access log file has 16 events and a drop report");
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Producers racing each other and the writer never lose an event without
+     * counting it: written plus dropped equals recorded.
+     */
+    private void accessLogConcurrentProducers() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("co2-selfcheck");
+        try {
+            AccessLog log = new AccessLog(dir.resolve("access.log"), 256, 1 << 30, 1);
+            log.start();
+            int producers = 4;
+            int perProducer = 50_000;
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                int session = p;
+                threads[p] = new Thread(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        log.record(AccessEvent.STORE_OK, session, i, 0);
+                    }
+                });
+                threads[p].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            log.close();
+
+            long accounted = log.writtenEvents() + log.droppedEvents();
+            check(accounted == (long) producers * perProducer, "concurrent access log accounts for every event (" +
+                    log.writtenEvents() + " written, " + log.droppedEvents() + " dropped)");
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * Readings written to block storage come back exactly: through the codec
+     * for sealed blocks, through the write-ahead file for the open block after
+     * a simulated crash, and without duplicates when a stale write-ahead file
+     * is found next to an already sealed block.
+     */
+    private void blockCodecRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("co2-selfcheck");
+        try {
+            String file = dir.resolve("readings.blk").toString();
+            StringDictionary userIds = new StringDictionary();
+            StringDictionary postcodes = new StringDictionary();
+            Random random = new Random(7);
+            int count = 1_000;
+            long[] millis = new long[count];
+            String[] users = new String[count];
+            String[] codes = new String[count];
+            double[] values = new double[count];
+            double[] awkward = {0.0, Double.MIN_VALUE, 1e-300, 1e300, Double.MAX_VALUE, 415.0, 415.1};
+
+            long t = 1_767_225_600_000L;
+            for (int i = 0; i < count; i++) {
+                // Mostly steady one-minute intervals, with repeats, jitter and an occasional step back.
+                t += switch (random.nextInt(10)) {
+                    case 0 -> 0;
+                    case 1 -> -random.nextInt(5_000);
+                    case 2 -> random.nextInt(100_000_000);
+                    default -> 60_000 + random.nextInt(3) - 1;
+                };
+                millis[i] = t;
+                users[i] = "r-" + random.nextInt(20);
+                codes[i] = random.nextInt(50) == 0 ? "\"quoted, postcode\"" : "AB" + random.nextInt(10);
+                values[i] = i % 10 == 0 ? awkward[random.nextInt(awkward.length)] : 400 + random.nextInt(2_000) / 10.0;
+            }
+
+            Co2ReadingBlockRepository repository = new Co2ReadingBlockRepository(file, 64, userIds, postcodes);
+            for (int i = 0; i < count; i++) {
+                LocalDateTime timestamp = LocalDateTime.ofEpochSecond(Math.floorDiv(millis[i], 1000),
+                        Math.floorMod(millis[i], 1000) * 1_000_000, ZoneOffset.UTC);
+                repository.append(new Co2Reading(timestamp, users[i], codes[i], values[i]));
+            }
+            check(matches(repository, userIds, postcodes, millis, users, codes, values, count),
+                    "block storage scan returns every reading exactly");
+
+            // Abandon the repository without flushing, as a crash would: 1000 % 64 readings are unsealed.
+            Co2ReadingBlockRepository reopened = new Co2ReadingBlockRepository(file, 64, userIds, postcodes);
+            check(matches(reopened, userIds, postcodes, millis, users, codes, values, count),
+                    "unsealed readings are recovered from the write-ahead file");
+
+            Path wal = Path.of(file + ".wal");
+            Files.writeString(wal, "2026-01-01T00:00:00,r-1,AB", StandardOpenOption.APPEND);
+            reopened = new Co2ReadingBlockRepository(file, 64, userIds, postcodes);
+            check(matches(reopened, userIds, postcodes, millis, users, codes, values, count),
+                    "a torn final write-ahead line is ignored");
+
+            byte[] staleWal = Files.readAllBytes(wal);
+            reopened.flush();
+            Files.write(wal, staleWal);
+            reopened = new Co2ReadingBlockRepository(file, 64, userIds, postcodes);
+            check(matches(reopened, userIds, postcodes, millis, users, codes, values, count),
+                    "a write-ahead file for an already sealed block is not replayed");
+        } finally {
+            deleteRecursively(dir);
+        }
+    }
+
+    /**
+     * A leader and a follower in two separate server processes on loopback:
+     * the follower catches up with readings already in the leader's file,
+     * including one line longer than a replication batch, and then with a
+     * reading submitted by a client. A follower that crashed after applying a
+     * batch but before recording it applies that batch exactly once.
+     */
+    private void replicationLoopback() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("co2-selfcheck");
+        List<Process> servers = new ArrayList<>();
+        try {
+            Path leaderFile = dir.resolve("leader.csv");
+            Path followerFile = dir.resolve("follower.csv");
+            Co2ReadingCsvRepository seed = new Co2ReadingCsvRepository(leaderFile.toString());
+            LocalDateTime start = LocalDateTime.of(2026, 1, 1, 0, 0);
+            seed.append(new Co2Reading(start, "r-1", "AB1", 415.0));
+            seed.append(new Co2Reading(start.plusMinutes(1), "r-1", "X".repeat(70_000), 420.0));
+            seed.append(new Co2Reading(start.plusMinutes(2), "r-2", "AB2", 430.0));
+
+            int leaderPort = freePort();
+            int replicationPort = freePort();
+            servers.add(startServer(dir, "leader", leaderPort, "--data", leaderFile.toString(),
+                    "--replication-port", String.valueOf(replicationPort)));
+            String[] followerArgs = {"--data", followerFile.toString(), "--follow", "127.0.0.1:" + replicationPort};
+            Process follower = startServer(dir, "follower", freePort(), followerArgs);
+            servers.add(follower);
+
+            check(awaitSameLines(leaderFile, followerFile),
+                    "follower replicates existing readings, including a line longer than a batch");
+            check(submitReading(leaderPort, "r-3", "AB3", "440") && awaitSameLines(leaderFile, followerFile),
+                    "follower replicates a reading submitted to the leader");
+
+            // Crash the follower, leaving a reading applied but not recorded in its offset file.
+            follower.destroyForcibly().waitFor();
+            List<String> applied = Files.readAllLines(followerFile);
+            Files.writeString(followerFile, applied.get(applied.size() - 1) + System.lineSeparator(),
+                    StandardOpenOption.APPEND);
+            servers.add(startServer(dir, "follower", freePort(), followerArgs));
+            check(submitReading(leaderPort, "r-4", "AB4", "450") && awaitSameLines(leaderFile, followerFile),
+                    "restarted follower discards an unrecorded batch instead of duplicating it");
+        } finally {
+            for (Process server : servers) {
+                server.destroyForcibly().waitFor();
+            }
+            deleteRecursively(dir);
+        }
+    }
+
+    private static Process startServer(Path dir, String name, int port, String... args) throws IOException {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), BasicServer.class.getName(),
+                String.valueOf(port)));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(dir.resolve(name + ".out").toFile()))
+                .start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Wait up to 20 seconds for two CSV files to hold the same lines.
+     */
+    private static boolean awaitSameLines(Path expected, Path actual) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (Files.exists(actual) && Files.readAllLines(expected).equals(Files.readAllLines(actual))) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    /**
+     * Store one reading through the client protocol, waiting for the server to start listening.
+     */
+    private static boolean submitReading(int port, String userId, String postcode, String ppm)
+            throws IOException, InterruptedException {
+        try (Socket socket = connect(port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true))
+        {
+            socket.setSoTimeout(20_000);
+            out.println(userId);
+            out.println(postcode);
+            out.println(ppm);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("Reading stored")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static Socket connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (true) {
+            try {
+                return new Socket("127.0.0.1", port);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static boolean matches(Co2ReadingBlockRepository repository, StringDictionary userIds,
+                                   StringDictionary postcodes, long[] millis, String[] users, String[] codes,
+                                   double[] values, int count) throws IOException {
+        int[] index = new int[1];
+        boolean[] ok = {true};
+        long visited = repository.scan((ts, user, postcode, ppm) -> {
+            int i = index[0]++;
+            if (i >= count || ts != millis[i] || Double.doubleToLongBits(ppm) != Double.doubleToLongBits(values[i])
+                    || !userIds.valueOf(user).equals(users[i]) || !postcodes.valueOf(postcode).equals(codes[i])) {
+                ok[0] = false;
+            }
+        });
+        return ok[0] && visited == count;
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
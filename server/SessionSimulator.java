@@ -0,0 +1,404 @@
+package server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Drives scripted client conversations through the real {@link ClientHandler},
+ * {@link Co2LoggingSession}, {@link Co2RateLimiter} and repository code on a
+ * {@link VirtualClock}, and measures the CPU time and heap allocation of each
+ * session.
+ *
+ * Each conversation runs over an {@link InMemoryPipe}. The handler runs on the
+ * calling thread, which is the only thread measured. A scripted client on a
+ * second thread answers each prompt from a pre-generated script. Client think
+ * time advances the virtual clock instead of sleeping. A think time longer
+ * than the server's read timeout makes the server's next read throw
+ * {@link SocketTimeoutException}, as a real socket would. The client only acts
+ * in response to a prompt, so the two threads never race for the clock.
+ * Scripts come from a seeded {@link Random}, so a given seed always produces
+ * the same conversations and the same outcomes.
+ */
+public class SessionSimulator {
+
+    private static final Logger logger = Logger.getLogger(SessionSimulator.class.getName());
+
+    private static final Duration READ_TIMEOUT = Duration.ofMillis(ClientHandler.SOCKET_READ_TIMEOUT_MS);
+    private static final LocalDateTime SIMULATION_START = LocalDateTime.of(2026, 1, 1, 0, 0);
+    private static final int WARMUP_ROUNDS = 3;
+    // Back-to-back submissions from one misbehaving device, enough to drain a researcher's burst allowance.
+    private static final int BURST_LENGTH = 20;
+    private static final String USAGE =
+            "Usage: SessionSimulator [sessions] [--seed n] [--storage csv|blocks] [--slow-fraction f]";
+
+    private final int sessions;
+    private final long seed;
+    private final boolean blockStorage;
+    private final double slowFraction;
+
+    /**
+     * @param sessions     number of conversations per run
+     * @param seed         seed for script generation
+     * @param blockStorage store readings with {@link Co2ReadingBlockRepository} instead of CSV
+     * @param slowFraction fraction of clients that think for 10-90 seconds per prompt,
+     *                     so that some of them hit the read timeout
+     */
+    public SessionSimulator(int sessions, long seed, boolean blockStorage, double slowFraction) {
+        if (sessions <= 0) {
+            throw new IllegalArgumentException("sessions must be positive");
+        }
+        if (slowFraction < 0 || slowFraction > 1) {
+            throw new IllegalArgumentException("slow fraction must be between 0 and 1");
+        }
+        this.sessions = sessions;
+        this.seed = seed;
+        this.blockStorage = blockStorage;
+        this.slowFraction = slowFraction;
+    }
+
+    /**
+     * Run the simulation and print a summary.
+     *
+     * Usage: SessionSimulator [sessions] [--seed n] [--storage csv|blocks] [--slow-fraction f]
+     *
+     * @param args command-line arguments
+     */
+    public static void main(String[] args) {
+        int sessions = 5_000;
+        long seed = 42;
+        boolean blocks = false;
+        double slowFraction = 0.05;
+        SessionSimulator simulator;
+        try {
+            int i = 0;
+            if (args.length > 0 && !args[0].startsWith("--")) {
+                sessions = Integer.parseInt(args[0]);
+                i = 1;
+            }
+            for (; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--seed" -> seed = Long.parseLong(requireValue(args, ++i));
+                    case "--storage" -> blocks = switch (requireValue(args, ++i)) {
+                        case "csv" -> false;
+                        case "blocks" -> true;
+                        default -> throw new IllegalArgumentException("Unknown storage " + args[i]);
+                    };
+                    case "--slow-fraction" -> slowFraction = Double.parseDouble(requireValue(args, ++i));
+                    default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            simulator = new SessionSimulator(sessions, seed, blocks, slowFraction);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid arguments: " + e.getMessage());
+            System.err.println(USAGE);
+            return;
+        }
+
+        try {
+            // Warm up the JIT on identical scripts so the measured run reflects steady state.
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                simulator.run();
+            }
+            System.out.println(simulator.run());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Simulation failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Run every scripted conversation once against a fresh repository in a
+     * temporary directory, which is deleted afterwards.
+     *
+     * @return outcome counts and per-session cost distribution
+     */
+    public Result run() throws IOException {
+        Path dir = Files.createTempDirectory("co2-sim");
+        try {
+            return run(dir);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    private Result run(Path dir) throws IOException {
+        Co2ReadingRepository repository = blockStorage
+                ? new Co2ReadingBlockRepository(dir.resolve("readings.blk").toString(),
+                        Co2ReadingBlockRepository.DEFAULT_BLOCK_SIZE, Co2Dictionaries.USER_IDS, Co2Dictionaries.POSTCODES)
+                : new Co2ReadingCsvRepository(dir.resolve("readings.csv").toString());
+        VirtualClock clock = new VirtualClock(SIMULATION_START);
+        Co2RateLimiter rateLimiter = Co2RateLimiter.withDefaultQuotas(clock::nanoTime);
+
+        // Generate every script up front so that script construction is not measured.
+        Random random = new Random(seed);
+        List<Script> scripts = new ArrayList<>(sessions);
+        int burstRemaining = 0;
+        for (int i = 0; i < sessions; i++) {
+            if (burstRemaining == 0 && random.nextInt(500) == 0) {
+                burstRemaining = BURST_LENGTH;
+            }
+            if (burstRemaining > 0) {
+                burstRemaining--;
+                scripts.add(Script.burst(random));
+            } else {
+                scripts.add(Script.generate(random, slowFraction));
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long[] cpuNanos = new long[sessions];
+        long[] allocatedBytes = new long[sessions];
+        int[] outcomes = new int[Outcome.values().length];
+        ExecutorService clientThread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "simulated-client");
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            for (int i = 0; i < sessions; i++) {
+                Script script = scripts.get(i);
+                clock.advance(script.arrivalGap);
+                InMemoryPipe pipe = new InMemoryPipe(0);
+                Future<Outcome> client = clientThread.submit(new ScriptedClient(script.steps, pipe.clientEnd(), clock));
+
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                long allocStart = threads.getCurrentThreadAllocatedBytes();
+                boolean failed = false;
+                try {
+                    new ClientHandler(repository, rateLimiter, AccessLog.disabled(), i).handle(pipe.serverEnd(), clock);
+                } catch (IOException e) {
+                    failed = true;
+                }
+                allocatedBytes[i] = threads.getCurrentThreadAllocatedBytes() - allocStart;
+                cpuNanos[i] = threads.getCurrentThreadCpuTime() - cpuStart;
+
+                pipe.serverEnd().close();
+                Outcome outcome = awaitClient(client);
+                outcomes[(failed ? Outcome.FAILED : outcome).ordinal()]++;
+            }
+        } finally {
+            clientThread.shutdownNow();
+        }
+        repository.flush();
+
+        return new Result(sessions, seed, outcomes, cpuNanos, allocatedBytes, clock.nanoTime());
+    }
+
+    private static Outcome awaitClient(Future<Outcome> client) throws IOException {
+        try {
+            return client.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Simulated client failed: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the simulated client", e);
+        }
+    }
+
+    private static String requireValue(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " requires a value");
+        }
+        return args[i];
+    }
+
+    /**
+     * How a simulated conversation ended.
+     */
+    public enum Outcome {
+        STORED,
+        RATE_LIMITED,
+        TIMED_OUT,
+        DISCONNECTED,
+        FAILED
+    }
+
+    /**
+     * Outcome counts and per-session cost for one simulation run.
+     *
+     * @param virtualNanos virtual time covered by the run
+     */
+    public record Result(int sessions, long seed, int[] outcomes, long[] cpuNanos, long[] allocatedBytes,
+                         long virtualNanos) {
+
+        public int count(Outcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "Simulated %d sessions (seed %d) over %.1f virtual hours%n",
+                    sessions, seed, virtualNanos / 3.6e12));
+            for (Outcome outcome : Outcome.values()) {
+                sb.append(String.format(Locale.ROOT, "  %-13s %d%n", outcome, count(outcome)));
+            }
+            sb.append(summary("CPU per session (us)", cpuNanos, 1_000.0));
+            sb.append(summary("Allocated per session (bytes)", allocatedBytes, 1.0));
+            return sb.toString();
+        }
+
+        private static String summary(String label, long[] values, double scale) {
+            long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            double mean = Arrays.stream(sorted).average().orElse(0);
+            return String.format(Locale.ROOT, "%s: mean %.1f, p50 %.1f, p99 %.1f, max %.1f%n", label,
+                    mean / scale, percentile(sorted, 0.50) / scale, percentile(sorted, 0.99) / scale,
+                    sorted[sorted.length - 1] / scale);
+        }
+
+        private static double percentile(long[] sorted, double p) {
+            return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+        }
+    }
+
+    /**
+     * One client line, sent after {@code think} of virtual time. A null line
+     * means the client disconnects instead of answering.
+     */
+    private record Step(Duration think, String line) {
+    }
+
+    /**
+     * A client conversation: the gap since the previous client arrived and
+     * the answers it gives, in order.
+     */
+    private record Script(Duration arrivalGap, Step[] steps) {
+
+        static Script generate(Random random, double slowFraction) {
+            boolean slow = random.nextDouble() < slowFraction;
+            List<Step> steps = new ArrayList<>(5);
+
+            if (random.nextInt(50) == 0) {
+                steps.add(new Step(think(random, slow), ""));
+            }
+            steps.add(new Step(think(random, slow), userId(random)));
+            steps.add(new Step(think(random, slow), "AB" + random.nextInt(300)));
+            if (random.nextInt(20) == 0) {
+                steps.add(new Step(think(random, slow), "high"));
+            }
+            steps.add(new Step(think(random, slow),
+                    String.format(Locale.ROOT, "%.1f", Math.abs(420 + random.nextGaussian() * 80))));
+
+            // A few clients drop the connection part-way through.
+            if (random.nextInt(50) == 0) {
+                steps.set(random.nextInt(steps.size()), new Step(think(random, slow), null));
+            }
+
+            Duration arrivalGap = Duration.ofMillis((long) (-Math.log(1 - random.nextDouble()) * 500));
+            return new Script(arrivalGap, steps.toArray(new Step[0]));
+        }
+
+        /**
+         * A client that submits immediately after the previous one with no
+         * think time, always as the same user.
+         */
+        static Script burst(Random random) {
+            Step[] steps = {
+                    new Step(Duration.ZERO, "r-burst"),
+                    new Step(Duration.ZERO, "AB" + random.nextInt(300)),
+                    new Step(Duration.ZERO, String.format(Locale.ROOT, "%.1f", 400 + random.nextInt(100) / 10.0))
+            };
+            return new Script(Duration.ZERO, steps);
+        }
+
+        private static String userId(Random random) {
+            int roll = random.nextInt(100);
+            if (roll < 80) {
+                return "r-" + random.nextInt(2_000);
+            }
+            if (roll < 95) {
+                return "dev-" + random.nextInt(100);
+            }
+            return "admin:" + random.nextInt(10);
+        }
+
+        private static Duration think(Random random, boolean slow) {
+            return slow
+                    ? Duration.ofSeconds(10 + random.nextInt(80))
+                    : Duration.ofMillis(200 + random.nextInt(2_800));
+        }
+    }
+
+    /**
+     * Client end of one conversation. Answers each prompt (a server line
+     * ending in ':') with the next scripted step, and classifies the outcome
+     * from the last line the server sent before closing.
+     */
+    private static final class ScriptedClient implements Callable<Outcome> {
+
+        private final Step[] steps;
+        private final InMemoryPipe.Endpoint connection;
+        private final VirtualClock clock;
+
+        ScriptedClient(Step[] steps, InMemoryPipe.Endpoint connection, VirtualClock clock) {
+            this.steps = steps;
+            this.connection = connection;
+            this.clock = clock;
+        }
+
+        @Override
+        public Outcome call() throws IOException {
+            int next = 0;
+            String lastReceived = null;
+            boolean timedOut = false;
+            boolean disconnected = false;
+
+            String line;
+            while ((line = connection.readLine()) != null) {
+                lastReceived = line;
+                if (!line.endsWith(":") || timedOut || disconnected) {
+                    continue;
+                }
+                Step step = next < steps.length ? steps[next++] : new Step(Duration.ZERO, null);
+                if (step.think().compareTo(READ_TIMEOUT) > 0) {
+                    clock.advance(READ_TIMEOUT);
+                    timedOut = true;
+                    connection.timeOutPeer();
+                } else {
+                    clock.advance(step.think());
+                    if (step.line() == null) {
+                        disconnected = true;
+                        connection.close();
+                    } else {
+                        connection.writeLine(step.line());
+                    }
+                }
+            }
+
+            if (timedOut) {
+                return Outcome.TIMED_OUT;
+            }
+            if (disconnected) {
+                return Outcome.DISCONNECTED;
+            }
+            return lastReceived != null && lastReceived.startsWith("Reading stored")
+                    ? Outcome.STORED
+                    : Outcome.RATE_LIMITED;
+        }
+    }
+}
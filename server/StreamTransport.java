@@ -0,0 +1,29 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * {@link Transport} over a reader/writer pair, normally a socket's streams.
+ */
+public final class StreamTransport implements Transport {
+
+    private final BufferedReader in;
+    private final PrintWriter out;
+
+    public StreamTransport(BufferedReader in, PrintWriter out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return in.readLine();
+    }
+
+    @Override
+    public void writeLine(String line) {
+        out.println(line);
+    }
+}
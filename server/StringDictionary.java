@@ -0,0 +1,102 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns stable, dense int ids to strings such as user ids and postcodes.
+ *
+ * Looking up a string that already has an id is lock-free. Only the first
+ * sighting of a new string takes a lock to hand out the next id. Ids are
+ * never reused or reassigned for the life of the dictionary.
+ */
+public final class StringDictionary {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param value the string to encode (not null)
+     * @return the id for {@code value}, assigning a new one if needed
+     */
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        return assign(value);
+    }
+
+    /**
+     * Return the dictionary's own instance of {@code value}, adding it if
+     * needed. Equal strings passed through here share one instance.
+     *
+     * @param value the string to canonicalize (not null)
+     * @return the canonical instance equal to {@code value}
+     */
+    public String canonical(String value) {
+        return valueOf(idOf(value));
+    }
+
+    /**
+     * Return the dictionary's own instance of {@code value} if it has one,
+     * otherwise {@code value} itself. Unlike {@link #canonical(String)} this
+     * never adds to the dictionary.
+     */
+    public String canonicalIfPresent(String value) {
+        Integer id = ids.get(value);
+        return id == null ? value : valueOf(id);
+    }
+
+    /**
+     * @param value the string to look up
+     * @return the id for {@code value}, or -1 if it has never been encoded
+     */
+    public int find(String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id an id previously returned by {@link #idOf(String)}
+     * @return the string for that id
+     * @throws IllegalArgumentException if the id is unknown
+     */
+    public String valueOf(int id) {
+        String[] snapshot = values;
+        String value = (id >= 0 && id < snapshot.length) ? snapshot[id] : null;
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown dictionary id: " + id);
+        }
+        return value;
+    }
+
+    /**
+     * @return number of distinct strings encoded so far
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int assign(String value) {
+        Integer existing = ids.get(value);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = size;
+        String[] current = values;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = value;
+        // Publish the array before the id so readers that see the id can resolve it.
+        values = current;
+        size = id + 1;
+        ids.put(value, id);
+        return id;
+    }
+}
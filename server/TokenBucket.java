@@ -0,0 +1,60 @@
+package server;
+
+/**
+ * Classic token bucket. Each bucket guards only its own state, so threads
+ * working on different buckets never contend with each other.
+ */
+final class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private final long fullRefillNanos;
+
+    private double tokens;
+    private long lastRefillNanos;
+    private volatile long lastUsedNanos;
+
+    TokenBucket(RateLimitQuota quota, long nowNanos) {
+        this.permitsPerNano = quota.permitsPerSecond() / 1_000_000_000d;
+        this.capacity = quota.burst();
+        this.fullRefillNanos = (long) Math.ceil(capacity / permitsPerNano);
+        this.tokens = capacity;
+        this.lastRefillNanos = nowNanos;
+        this.lastUsedNanos = nowNanos;
+    }
+
+    synchronized boolean tryAcquire(long nowNanos) {
+        refill(nowNanos);
+        lastUsedNanos = nowNanos;
+        if (tokens >= 1d) {
+            tokens -= 1d;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(long)} when a later check
+     * rejected the request anyway.
+     */
+    synchronized void refund() {
+        tokens = Math.min(capacity, tokens + 1d);
+    }
+
+    /**
+     * A bucket is idle once nobody has used it for {@code idleNanos} and it
+     * has had time to refill completely. Dropping such a bucket and creating a
+     * fresh one later is indistinguishable from keeping it.
+     */
+    boolean isIdle(long nowNanos, long idleNanos) {
+        return nowNanos - lastUsedNanos >= Math.max(idleNanos, fullRefillNanos);
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * permitsPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * Line-oriented connection to a client, as seen by the session layer.
+ * Implementations exist for real sockets ({@link StreamTransport}) and for
+ * in-process testing ({@link InMemoryPipe}).
+ */
+public interface Transport {
+
+    /**
+     * Read the next line from the client.
+     *
+     * @return the line without its terminator, or null if the client has disconnected
+     * @throws java.net.SocketTimeoutException if no line arrives within the transport's read timeout
+     * @throws IOException                     on any other I/O failure
+     */
+    String readLine() throws IOException;
+
+    /**
+     * Send a line to the client.
+     *
+     * @param line the line to send, without a terminator
+     */
+    void writeLine(String line);
+}
@@ -0,0 +1,35 @@
+package server;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * {@link Clock} whose time only moves when {@link #advance(Duration)} is
+ * called, for deterministic simulations.
+ */
+public final class VirtualClock implements Clock {
+
+    private final LocalDateTime start;
+    private long elapsedNanos;
+
+    public VirtualClock(LocalDateTime start) {
+        this.start = start;
+    }
+
+    @Override
+    public synchronized LocalDateTime now() {
+        return start.plusNanos(elapsedNanos);
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return elapsedNanos;
+    }
+
+    public synchronized void advance(Duration duration) {
+        if (duration.isNegative()) {
+            throw new IllegalArgumentException("Cannot move a clock backwards");
+        }
+        elapsedNanos += duration.toNanos();
+    }
+}